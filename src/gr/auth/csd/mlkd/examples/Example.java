@@ -16,6 +16,9 @@
  */
 package gr.auth.csd.mlkd.examples;
 
+import gr.auth.csd.mlkd.preprocessing.Document;
+import gr.auth.csd.mlkd.preprocessing.TokenCache;
+import gr.auth.csd.mlkd.preprocessing.TokenizingCorpus;
 import gr.auth.csd.mlkd.utils.CmdOption;
 import gr.auth.csd.mlkd.utils.MicroAndMacroFLabelPivoted;
 import gr.auth.csd.mlkd.mlclassification.MLClassifier;
@@ -35,6 +38,11 @@ public class Example {
         Timer timer = new Timer();
 
         CmdOption option = new CmdOption(args);
+        TokenizingCorpus.setThreads(option.tokenizerThreads);
+        Document.setTokenizer(option.tokenizer);
+        Dictionary.setMaxBigrams(option.maxBigrams);
+        TokenCache tokenCache = (option.tokenCache != null) ? new TokenCache(option.tokenCache) : null;
+        Document.setTokenCache(tokenCache);
         Dictionary dic = null;
         CorpusJSON corpus = new CorpusJSON(option.trainingFile);
         dic = new Dictionary(corpus, option.lowUnigrams, option.highUnigrams,
@@ -54,5 +62,8 @@ public class Example {
 
         MicroAndMacroFLabelPivoted ev = new MicroAndMacroFLabelPivoted(labels, new CorpusJSON(option.testFile), option.bipartitionsFile);
         ev.evaluate();
+        if (tokenCache != null) {
+            tokenCache.close();
+        }
     }
 }
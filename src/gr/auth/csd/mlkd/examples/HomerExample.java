@@ -16,22 +16,31 @@
  */
 package gr.auth.csd.mlkd.examples;
 
+import gr.auth.csd.mlkd.preprocessing.Document;
+import gr.auth.csd.mlkd.preprocessing.TokenCache;
+import gr.auth.csd.mlkd.preprocessing.TokenizingCorpus;
 import gr.auth.csd.mlkd.utils.MicroAndMacroFLabelPivoted;
 import gr.auth.csd.mlkd.mlclassification.homer.ClusteringDataset;
 import gr.auth.csd.mlkd.mlclassification.homer.Homer;
+import gr.auth.csd.mlkd.mlclassification.homer.HomerCoordinator;
 import gr.auth.csd.mlkd.mlclassification.homer.HomerCmdOption;
 import gr.auth.csd.mlkd.mlclassification.homer.Tree;
 import gr.auth.csd.mlkd.mlclassification.homer.clusterer.Dbscan;
 import gr.auth.csd.mlkd.mlclassification.homer.clusterer.Hierarchical;
+import gr.auth.csd.mlkd.mlclassification.homer.clusterer.KnnGraphClustering;
+import gr.auth.csd.mlkd.mlclassification.homer.clusterer.MiniBatchKMeans;
 import gr.auth.csd.mlkd.mlclassification.homer.clusterer.Optics;
 import gr.auth.csd.mlkd.mlclassification.homer.clusterer.RecursiveBalancedKMeans;
 import gr.auth.csd.mlkd.mlclassification.homer.clusterer.RecursiveKMeans;
 import gr.auth.csd.mlkd.mlclassification.homer.clusterer.RecursiveLabelClustering;
+import gr.auth.csd.mlkd.mlclassification.homer.clusterer.SphericalKMeans;
+import gr.auth.csd.mlkd.preprocessing.Corpus;
+import gr.auth.csd.mlkd.preprocessing.CorpusBinary;
 import gr.auth.csd.mlkd.preprocessing.CorpusJSON;
+import gr.auth.csd.mlkd.preprocessing.CorpusJSONL;
 import gr.auth.csd.mlkd.preprocessing.Dictionary;
 import gr.auth.csd.mlkd.preprocessing.Labels;
 import gr.auth.csd.mlkd.utils.Timer;
-import java.io.FileNotFoundException;
 
 /**
  *
@@ -39,9 +48,14 @@ import java.io.FileNotFoundException;
  */
 public class HomerExample {
 
-    public static void main(String args[]) throws FileNotFoundException {
+    public static void main(String args[]) {
         Timer timer = new Timer();
         HomerCmdOption option = new HomerCmdOption(args);
+        TokenizingCorpus.setThreads(option.tokenizerThreads);
+        Document.setTokenizer(option.tokenizer);
+        Dictionary.setMaxBigrams(option.maxBigrams);
+        TokenCache tokenCache = (option.tokenCache != null) ? new TokenCache(option.tokenCache) : null;
+        Document.setTokenCache(tokenCache);
 
         String cm = option.vectorMethod;
         String clusterer = option.clusteringMethod;
@@ -50,7 +64,9 @@ public class HomerExample {
         double epsilon = option.epsilon;
 
         String df = option.distanceFunction;
-        CorpusJSON trainingCorpus = new CorpusJSON(option.trainingFile);
+        Corpus trainingCorpus = (option.binaryCorpus) ? CorpusBinary.open(option.trainingFile)
+                : (option.jsonlCorpus) ? CorpusJSONL.open(option.trainingFile)
+                : new CorpusJSON(option.trainingFile);
         CorpusJSON testCorpus = null;
         if (option.testFile != null) {
             testCorpus = new CorpusJSON(option.testFile);
@@ -63,34 +79,66 @@ public class HomerExample {
         dictionary.writeDictionary(option.dictionary);
         labels.writeLabels(option.labels);
 
-        ClusteringDataset cd = createHierarchy(cm, option, args, labels, clusterer, hmethod, df, epsilon);
+        ClusteringDataset cd = createHierarchy(cm, option, args, labels, trainingCorpus, clusterer, hmethod, df, epsilon);
         Homer homer = new Homer((HomerCmdOption) option);
         //Homer homer = new Homer((HomerCmdOption) option, dictionary, labels, trainingCorpus, testCorpus);
 
 
-        homer.train();
+        if (option.workers > 0 || option.coordinatorPort > 0) {
+            new HomerCoordinator(homer, option, args).train();
+        } else {
+            homer.train();
+        }
         homer.predict(null);
         homer.bipartitionsWrite(option.bipartitionsFile);
         homer.finalCleanup(option);
 
         MicroAndMacroFLabelPivoted ev = new MicroAndMacroFLabelPivoted(labels, new CorpusJSON(option.testFile), option.bipartitionsFile);
         ev.evaluate();
+        if (tokenCache != null) {
+            tokenCache.close();
+        }
     }
 
     private static ClusteringDataset createHierarchy(String cm, HomerCmdOption option, String[] args,
-            Labels labels, String clusterer, String hmethod, String df, double epsilon) throws FileNotFoundException {
+            Labels labels, Corpus corpus, String clusterer, String hmethod, String df, double epsilon) {
         ClusteringDataset cd;
-        cd = new ClusteringDataset(labels, option.trainingFile, option.labels);
+        cd = new ClusteringDataset(labels, corpus, option.labels);
 
-        String libSVMFile = cd.writeToFile(option.trainingFile, null);
 
         System.out.println(clusterer);
-        RecursiveLabelClustering cc;
+        RecursiveLabelClustering<?> cc = createClusterer(option, labels, clusterer, hmethod, df, epsilon);
+//NOT WORKING        cc = new Clique(cd.getLabels(), option.maxClusterSize, option.numOfClusters);
+        cc.recursion(true, cc.hierarchy.getRoot(), cd.getLabelIndices(), cd, corpus);
+        if (option.compactTree) {
+            Tree.writeCompact(cc.hierarchy, option.treeFile, option.dictionary);
+        } else {
+            cc.hierarchy.writeTree(option.treeFile);
+        }
+        cc.hierarchy.getRoot().print(cc.labels);
+        System.out.println("The hierarchy has " + Tree.getNumberOfNodes() + " nodes.");
+        return cd;
+    }
 
+    public static RecursiveLabelClustering<?> createClusterer(HomerCmdOption option, Labels labels,
+            String clusterer, String hmethod, String df, double epsilon) {
+        RecursiveLabelClustering<?> cc;
         switch (clusterer) {
             case "kmeans":
                 cc = new RecursiveKMeans(labels, option.maxClusterSize, option.numOfClusters, df);
                 break;
+            case "spherical":
+                cc = new SphericalKMeans(labels, option.maxClusterSize, option.numOfClusters, df,
+                        option.kmeansIterations);
+                break;
+            case "minibatch":
+                cc = new MiniBatchKMeans(labels, option.maxClusterSize, option.numOfClusters, df,
+                        option.batchSize, option.kmeansIterations);
+                break;
+            case "knngraph":
+                cc = new KnnGraphClustering(labels, option.maxClusterSize, option.numOfClusters, df,
+                        option.lshBands, option.lshRows, option.knn);
+                break;
             case "optics":
                 cc = new Optics(labels, option.maxClusterSize, epsilon, df);
                 break;
@@ -101,11 +149,12 @@ public class HomerExample {
                 cc = new Dbscan(labels, 3, epsilon, df);
                 break;
         }
-//NOT WORKING        cc = new Clique(cd.getLabels(), option.maxClusterSize, option.numOfClusters);
-        cc.recursion(true, cc.hierarchy.getRoot(), libSVMFile, cd, new CorpusJSON(option.trainingFile));
-        cc.hierarchy.writeTree(option.treeFile);
-        cc.hierarchy.getRoot().print(cc.labels);
-        System.out.println("The hierarchy has " + Tree.getNumberOfNodes() + " nodes.");
-        return cd;
+        if (option.costBalance) {
+            cc.setCostBalance(option.costSlack);
+        }
+        cc.setThreads(option.clusteringThreads);
+        cc.setSketch(option.sketch);
+        cc.setSilhouette(option.silhouette, option.silhouetteSample, option.silhouetteEvery);
+        return cc;
     }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2016 Yannis Papanikolaou
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.auth.csd.mlkd.examples;
+
+import gr.auth.csd.mlkd.preprocessing.Document;
+import gr.auth.csd.mlkd.preprocessing.TokenCache;
+import gr.auth.csd.mlkd.preprocessing.TokenizingCorpus;
+import gnu.trove.set.hash.TIntHashSet;
+import gr.auth.csd.mlkd.mlclassification.homer.ClusteringDataset;
+import gr.auth.csd.mlkd.mlclassification.homer.HierarchyUpdater;
+import gr.auth.csd.mlkd.mlclassification.homer.Homer;
+import gr.auth.csd.mlkd.mlclassification.homer.HomerCmdOption;
+import gr.auth.csd.mlkd.mlclassification.homer.Tree;
+import gr.auth.csd.mlkd.mlclassification.homer.clusterer.RecursiveLabelClustering;
+import gr.auth.csd.mlkd.preprocessing.CorpusJSON;
+import gr.auth.csd.mlkd.preprocessing.Dictionary;
+import gr.auth.csd.mlkd.preprocessing.Labels;
+import gr.auth.csd.mlkd.utils.MicroAndMacroFLabelPivoted;
+import gr.auth.csd.mlkd.utils.Timer;
+
+/**
+ * Updates a trained HOMER model with the labels of a new training file:
+ * the existing dictionary, labels, tree and models are reused, new labels
+ * are placed into the hierarchy and only the affected nodes are retrained.
+ *
+ * @author Yannis Papanikolaou
+ */
+public class IncrementalHomerExample {
+
+    public static void main(String args[]) {
+        Timer timer = new Timer();
+        HomerCmdOption option = new HomerCmdOption(args);
+        TokenizingCorpus.setThreads(option.tokenizerThreads);
+        Document.setTokenizer(option.tokenizer);
+        TokenCache tokenCache = (option.tokenCache != null) ? new TokenCache(option.tokenCache) : null;
+        Document.setTokenCache(tokenCache);
+
+        Dictionary dictionary = Dictionary.readDictionary(option.dictionary);
+        Labels labels = Labels.readLabels(option.labels);
+        Tree<TIntHashSet> hierarchy = Tree.readTree(option.treeFile, dictionary);
+        CorpusJSON trainingCorpus = new CorpusJSON(option.trainingFile);
+        TIntHashSet newLabels = labels.update(trainingCorpus);
+
+        ClusteringDataset cd = new ClusteringDataset(labels, option.trainingFile, option.labels);
+        RecursiveLabelClustering<?> cc = HomerExample.createClusterer(option, labels, option.clusteringMethod,
+                option.hierarchicalMethod, option.distanceFunction, option.epsilon);
+        HierarchyUpdater updater = new HierarchyUpdater(hierarchy, cd, option.maxClusterSize);
+        TIntHashSet affected = updater.update(newLabels, cc, trainingCorpus);
+        if (option.compactTree) {
+            Tree.writeCompact(hierarchy, option.treeFile, option.dictionary);
+        } else {
+            hierarchy.writeTree(option.treeFile);
+        }
+
+        Homer homer = new Homer(option, dictionary, labels);
+        homer.train(affected);
+        System.out.println(timer.duration());
+        if (option.testFile != null) {
+            homer.predict(null);
+            homer.bipartitionsWrite(option.bipartitionsFile);
+            homer.finalCleanup(option);
+            MicroAndMacroFLabelPivoted ev = new MicroAndMacroFLabelPivoted(labels, new CorpusJSON(option.testFile), option.bipartitionsFile);
+            ev.evaluate();
+        }
+        if (tokenCache != null) {
+            tokenCache.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 Yannis Papanikolaou
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.auth.csd.mlkd.examples;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gr.auth.csd.mlkd.preprocessing.Corpus;
+import gr.auth.csd.mlkd.preprocessing.CorpusJSON;
+import gr.auth.csd.mlkd.preprocessing.Document;
+import gr.auth.csd.mlkd.preprocessing.Tokenizer;
+import gr.auth.csd.mlkd.utils.CmdOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the fast tokenizer to CoreNLP on the documents of the training
+ * file: tokens per second of each, and how often they agree on the tokens and
+ * on the sentences of a document, with the tokens that only one of them
+ * produces most often.
+ *
+ * @author Yannis Papanikolaou
+ */
+public class TokenizerBenchmark {
+
+    private static final int TOP = 20;
+
+    public static void main(String args[]) {
+        CmdOption option = new CmdOption(args);
+        Corpus corpus = new CorpusJSON(option.trainingFile).projection(Corpus.TITLE, Corpus.ABSTRACT, Corpus.BODY);
+        List<String> texts = new ArrayList<>();
+        Document doc;
+        corpus.reset();
+        while ((doc = corpus.nextDocument()) != null) {
+            texts.add(doc.getTitle() + doc.getAbs() + doc.getBody());
+        }
+        corpus.close();
+
+        List<List<String>> coreNLP = run(Tokenizer.create(Tokenizer.CORENLP), texts);
+        List<List<String>> fast = run(Tokenizer.create(Tokenizer.FAST), texts);
+
+        int sameDocuments = 0, sameSentences = 0;
+        long common = 0, coreNLPTokens = 0, fastTokens = 0;
+        TObjectIntHashMap<String> onlyCoreNLP = new TObjectIntHashMap<>();
+        TObjectIntHashMap<String> onlyFast = new TObjectIntHashMap<>();
+        for (int d = 0; d < texts.size(); d++) {
+            String[] a = tokens(coreNLP.get(d)), b = tokens(fast.get(d));
+            sameDocuments += Arrays.equals(a, b) ? 1 : 0;
+            sameSentences += coreNLP.get(d).equals(fast.get(d)) ? 1 : 0;
+            coreNLPTokens += a.length;
+            fastTokens += b.length;
+            TObjectIntHashMap<String> counts = new TObjectIntHashMap<>();
+            for (String t : a) {
+                counts.adjustOrPutValue(t, 1, 1);
+            }
+            for (String t : b) {
+                if (counts.get(t) > 0) {
+                    counts.adjustValue(t, -1);
+                    common++;
+                } else {
+                    onlyFast.adjustOrPutValue(t, 1, 1);
+                }
+            }
+            for (String t : counts.keySet()) {
+                if (counts.get(t) > 0) {
+                    onlyCoreNLP.adjustOrPutValue(t, counts.get(t), counts.get(t));
+                }
+            }
+        }
+        double precision = (double) common / fastTokens, recall = (double) common / coreNLPTokens;
+        System.out.printf("Documents with the same tokens: %.2f%%%n", 100.0 * sameDocuments / texts.size());
+        System.out.printf("Documents with the same tokens and sentences: %.2f%%%n", 100.0 * sameSentences / texts.size());
+        System.out.printf("Token agreement: precision %.4f, recall %.4f, F %.4f%n",
+                precision, recall, 2 * precision * recall / (precision + recall));
+        System.out.println("Tokens only from CoreNLP: " + top(onlyCoreNLP));
+        System.out.println("Tokens only from the fast tokenizer: " + top(onlyFast));
+    }
+
+    /* tokenizes the texts twice and reports the speed of the second pass */
+    private static List<List<String>> run(Tokenizer tokenizer, List<String> texts) {
+        List<List<String>> sentences = null;
+        long time = 0, tokens = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            sentences = new ArrayList<>(texts.size());
+            tokens = 0;
+            long start = System.nanoTime();
+            for (String text : texts) {
+                sentences.add(tokenizer.tokenize(text));
+            }
+            time = System.nanoTime() - start;
+            for (List<String> s : sentences) {
+                tokens += tokens(s).length;
+            }
+        }
+        System.out.printf("%s: %d documents, %d tokens in %.2f s, %.0f tokens/s, %.3f ms/document%n",
+                tokenizer.name(), texts.size(), tokens, time / 1e9, tokens / (time / 1e9), time / 1e6 / texts.size());
+        return sentences;
+    }
+
+    private static String[] tokens(List<String> sentences) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : sentences) {
+            sb.append(s);
+        }
+        String all = sb.toString().trim();
+        return all.isEmpty() ? new String[0] : all.split(" +");
+    }
+
+    private static String top(final TObjectIntHashMap<String> counts) {
+        List<String> keys = new ArrayList<>(counts.keySet());
+        keys.sort((x, y) -> Integer.compare(counts.get(y), counts.get(x)));
+        StringBuilder sb = new StringBuilder();
+        for (String key : keys.subList(0, Math.min(TOP, keys.size()))) {
+            sb.append(key).append("(").append(counts.get(key)).append(") ");
+        }
+        return sb.toString();
+    }
+}
@@ -125,9 +125,6 @@ public abstract class BinaryClassifier implements Runnable {
     private static void normalizePredictions() {
         //System.out.println(Arrays.toString(predictions[0]));
         for (int doc = 0; doc < predictions.length; doc++) {
-            for (int label = 0; label < predictions[doc].length; label++) {
-                predictions[doc][label] = -predictions[doc][label];
-            }
             //if (doc == 0) System.out.println(Arrays.toString(predictions[0]));
             for (int label = 0; label < predictions[doc].length; label++) {
                 predictions[doc][label] = 1 / (1 + Math.exp(-predictions[doc][label]));
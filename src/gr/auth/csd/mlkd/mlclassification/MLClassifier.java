@@ -103,8 +103,9 @@ public abstract class MLClassifier {
         int id = 0;
         int size = CorpusJSON.size(corpus2);
         docMap = new String[size];
-        corpus2.reset();
-        while ((doc = corpus2.nextDocument()) != null) {
+        Corpus ids = corpus2.projection(Corpus.ID);
+        ids.reset();
+        while ((doc = ids.nextDocument()) != null) {
             docMap[id] = doc.getId();
             id++;
         }
@@ -183,6 +184,14 @@ public abstract class MLClassifier {
         //System.out.println(bipartitions.size());
     }
 
+    public Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    public String[] getDocMap() {
+        return docMap;
+    }
+
     public void setBipartitions(TreeMap<String, THashSet<String>> bipartitions) {
         this.bipartitions = bipartitions;
     }
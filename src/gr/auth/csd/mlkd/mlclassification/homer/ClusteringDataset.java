@@ -16,8 +16,17 @@
  */
 package gr.auth.csd.mlkd.mlclassification.homer;
 
+import de.lmu.ifi.dbs.elki.data.LabelList;
+import de.lmu.ifi.dbs.elki.data.SparseDoubleVector;
+import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import gnu.trove.set.hash.THashSet;
+import gr.auth.csd.mlkd.mlclassification.homer.clusterer.BitmapVector;
+import gr.auth.csd.mlkd.utils.CompressedBitmap;
 import gr.auth.csd.mlkd.utils.CmdOption;
+import gr.auth.csd.mlkd.preprocessing.Corpus;
 import gr.auth.csd.mlkd.preprocessing.CorpusJSON;
 import gr.auth.csd.mlkd.preprocessing.Document;
 import gr.auth.csd.mlkd.preprocessing.Labels;
@@ -27,8 +36,7 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,13 +51,19 @@ import java.util.logging.Logger;
 public class ClusteringDataset {
 
     protected Labels labels = null;
-    protected ArrayList<LinkedHashSet<Integer>> data;
+    protected ArrayList<CompressedBitmap> data;
+    protected int dimensionality;
+    private double[][] sketches;
+    private int[] sketchDims;
 
     public ClusteringDataset() {
     }
 
     public ClusteringDataset(Labels labels, String trainingFile, String labelsFile) {
-        CorpusJSON corpus = new CorpusJSON(trainingFile);
+        this(labels, new CorpusJSON(trainingFile), labelsFile);
+    }
+
+    public ClusteringDataset(Labels labels, Corpus corpus, String labelsFile) {
         if (labels != null) {
             this.labels = labels;
         } else {
@@ -58,9 +72,10 @@ public class ClusteringDataset {
         this.labels.writeLabels(labelsFile);
         data = new ArrayList<>();
         for (int i = 0; i < this.labels.getSize(); i++) {
-            data.add(i, new LinkedHashSet<Integer>());
+            data.add(i, new CompressedBitmap());
         }
 
+        corpus = corpus.projection(Corpus.LABELS);
         corpus.reset();
         Document doc;
         int docId = 1;
@@ -71,22 +86,104 @@ public class ClusteringDataset {
             }
             docId++;
         }
+        dimensionality = docId;
+        long bytes = 0;
+        for (CompressedBitmap d : data) {
+            d.runOptimize();
+            bytes += d.sizeInBytes();
+        }
+        System.out.println("Clustering dataset: " + data.size() + " labels, " + (docId - 1)
+                + " documents, " + bytes / 1024 + " KB");
     }
 
     public Labels getLabels() {
         return labels;
     }
 
+    /* the indices of all labels, as used by writeToFile and toBundle */
+    public List<Integer> getLabelIndices() {
+        List<Integer> labs = new ArrayList<>();
+        for (int i = 0; i < data.size(); i++) {
+            labs.add(i);
+        }
+        return labs;
+    }
+
+    /**
+     * The rows of the given labels as an ELKI bundle: a binary vector over
+     * the document ids, sharing the bitmap of the label, and the label index
+     * as its LabelList, the same as parsing the output of writeToFile.
+     */
+    public MultipleObjectsBundle toBundle(List<Integer> labs) {
+        List<SparseNumberVector> vectors = new ArrayList<>(labs.size());
+        List<LabelList> names = new ArrayList<>(labs.size());
+        for (int label : labs) {
+            vectors.add(new BitmapVector(data.get(label), dimensionality));
+            names.add(LabelList.make(Collections.singletonList(Integer.toString(label))));
+        }
+        return MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(BitmapVector.FACTORY, dimensionality),
+                vectors, TypeUtil.LABELLIST, names);
+    }
+
+    /* the documents (1-based ids) of the label with the given index */
+    public int[] documents(int label) {
+        return data.get(label).toArray();
+    }
+
+    /**
+     * The rows of the given labels as count sketches: every document is
+     * hashed to one of d dimensions with a random sign, so that inner
+     * products, and thus Euclidean and cosine distances, are preserved in
+     * expectation while the vectors no longer grow with the corpus. The
+     * sketches are computed once and shared by all nodes.
+     */
+    public MultipleObjectsBundle toSketchBundle(List<Integer> labs, int d) {
+        synchronized (this) {
+            if (sketchDims == null || sketchDims.length != d) {
+                sketches = new double[data.size()][];
+                int[] dims = new int[d];
+                for (int i = 0; i < d; i++) {
+                    dims[i] = i;
+                }
+                for (int label = 0; label < data.size(); label++) {
+                    double[] sketch = new double[d];
+                    for (int docid : data.get(label).toArray()) {
+                        int h = hash(docid);
+                        sketch[(h >>> 1) % d] += ((h & 1) == 0) ? 1 : -1;
+                    }
+                    sketches[label] = sketch;
+                }
+                sketchDims = dims;
+            }
+        }
+        List<SparseDoubleVector> vectors = new ArrayList<>(labs.size());
+        List<LabelList> names = new ArrayList<>(labs.size());
+        for (int label : labs) {
+            vectors.add(new SparseDoubleVector(sketchDims, sketches[label], d));
+            names.add(LabelList.make(Collections.singletonList(Integer.toString(label))));
+        }
+        return MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(SparseDoubleVector.FACTORY, d),
+                vectors, TypeUtil.LABELLIST, names);
+    }
+
+    /* murmur3 finalizer, spreads consecutive document ids over all bits */
+    private static int hash(int x) {
+        x ^= x >>> 16;
+        x *= 0x85ebca6b;
+        x ^= x >>> 13;
+        x *= 0xc2b2ae35;
+        x ^= x >>> 16;
+        return x;
+    }
+
     public String writeToFile(String inputFile, List<? extends Object> labs) {
         //write to file
         try (BufferedWriter output = Files.newBufferedWriter(Paths.get(inputFile + ".libSVM"), Charset.forName("UTF-8"))) {
             if (labs == null) {
                 int label = 0;
-                for (LinkedHashSet<Integer> d : data) {
+                for (CompressedBitmap d : data) {
                     output.write(label + " ");
-                    Iterator<Integer> it2 = d.iterator();
-                    while (it2.hasNext()) {
-                        int docid = it2.next();
+                    for (int docid : d.toArray()) {
                         output.write(docid + ":1 ");
                     }
                     label++;
@@ -96,9 +193,7 @@ public class ClusteringDataset {
                 for (Object label : labs) {
                     Integer key = Integer.parseInt(label.toString());
                     output.write(key + " ");
-                    Iterator<Integer> it2 = data.get(key).iterator();
-                    while (it2.hasNext()) {
-                        int docid = it2.next();
+                    for (int docid : data.get(key).toArray()) {
                         output.write(docid + ":1 ");
                     }
                     output.newLine();
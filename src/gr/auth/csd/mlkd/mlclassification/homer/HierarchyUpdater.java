@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.auth.csd.mlkd.mlclassification.homer;
+
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.set.hash.TIntHashSet;
+import gr.auth.csd.mlkd.mlclassification.homer.clusterer.LabelClustering;
+import gr.auth.csd.mlkd.mlclassification.homer.clusterer.RecursiveLabelClustering;
+import gr.auth.csd.mlkd.preprocessing.Corpus;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ *
+ * Adds new labels to an existing hierarchy without rebuilding it. Each new
+ * label goes to the leaf whose documents are most similar (Jaccard) to its
+ * own, leaves that grow beyond maxClusterSize are clustered again, and the
+ * ids of the nodes that have to be retrained are returned.
+ */
+public class HierarchyUpdater {
+
+    private final Tree<TIntHashSet> hierarchy;
+    private final ClusteringDataset cd;
+    private final int maxClusterSize;
+
+    public HierarchyUpdater(Tree<TIntHashSet> hierarchy, ClusteringDataset cd, int maxClusterSize) {
+        this.hierarchy = hierarchy;
+        this.cd = cd;
+        this.maxClusterSize = maxClusterSize;
+    }
+
+    public TIntHashSet update(TIntHashSet newLabels, RecursiveLabelClustering<?> cc, Corpus corpus) {
+        List<Node<TIntHashSet>> leaves = new ArrayList<>();
+        leaves(hierarchy.getRoot(), leaves);
+        List<TIntHashSet> leafDocuments = new ArrayList<>();
+        for (Node<TIntHashSet> leaf : leaves) {
+            TIntHashSet docs = new TIntHashSet();
+            TIntIterator it = leaf.getData().iterator();
+            while (it.hasNext()) {
+                addDocuments(it.next(), docs);
+            }
+            leafDocuments.add(docs);
+        }
+
+        List<Node<TIntHashSet>> changed = new ArrayList<>();
+        TIntIterator it = newLabels.iterator();
+        while (it.hasNext()) {
+            int label = it.next();
+            TIntHashSet docs = new TIntHashSet();
+            addDocuments(label, docs);
+            int best = 0;
+            double bestSimilarity = -1;
+            for (int l = 0; l < leaves.size(); l++) {
+                double similarity = jaccard(docs, leafDocuments.get(l));
+                if (similarity > bestSimilarity) {
+                    bestSimilarity = similarity;
+                    best = l;
+                }
+            }
+            Node<TIntHashSet> leaf = leaves.get(best);
+            leafDocuments.get(best).addAll(docs);
+            for (Node<TIntHashSet> n = leaf; n != null; n = n.getParent()) {
+                n.getData().add(label);
+            }
+            if (!changed.contains(leaf)) {
+                changed.add(leaf);
+            }
+        }
+
+        TIntHashSet affected = new TIntHashSet();
+        int maxId = 0;
+        for (Node<TIntHashSet> n : hierarchy.getNodeMap().values()) {
+            maxId = Math.max(maxId, n.getId());
+        }
+        LabelClustering.setId(maxId);
+        for (Node<TIntHashSet> leaf : changed) {
+            for (Node<TIntHashSet> n = leaf; n != null; n = n.getParent()) {
+                affected.add(n.getId());
+            }
+            if (leaf.getData().size() > maxClusterSize) {
+                System.out.println("Splitting node #" + leaf.getId() + " with " + leaf.getData().size() + " labels");
+                List<Integer> labs = new ArrayList<>();
+                TIntIterator lit = leaf.getData().iterator();
+                while (lit.hasNext()) {
+                    labs.add(lit.next() - 1);
+                }
+                cc.recursion(false, leaf, labs, cd, corpus);
+                subtree(leaf, affected);
+            }
+        }
+        for (Map.Entry<String, Node<TIntHashSet>> entry : cc.hierarchy.getNodeMap().entrySet()) {
+            if (entry.getValue() != cc.hierarchy.getRoot()) {
+                hierarchy.getNodeMap().put(entry.getKey(), entry.getValue());
+            }
+        }
+        System.out.println(newLabels.size() + " labels added to " + changed.size() + " leaves, "
+                + affected.size() + " nodes to retrain.");
+        return affected;
+    }
+
+    private void addDocuments(int label, TIntHashSet docs) {
+        docs.addAll(cd.data.get(label - 1).toArray());
+    }
+
+    private static double jaccard(TIntHashSet a, TIntHashSet b) {
+        int intersection = 0;
+        TIntIterator it = a.iterator();
+        while (it.hasNext()) {
+            if (b.contains(it.next())) {
+                intersection++;
+            }
+        }
+        int union = a.size() + b.size() - intersection;
+        return (union == 0) ? 0 : (double) intersection / union;
+    }
+
+    private static void leaves(Node<TIntHashSet> n, List<Node<TIntHashSet>> leaves) {
+        if (n.isLeaf()) {
+            leaves.add(n);
+        } else {
+            for (Node<TIntHashSet> child : n.getChildren()) {
+                leaves(child, leaves);
+            }
+        }
+    }
+
+    private static void subtree(Node<TIntHashSet> n, TIntHashSet ids) {
+        ids.add(n.getId());
+        if (!n.isLeaf()) {
+            for (Node<TIntHashSet> child : n.getChildren()) {
+                subtree(child, ids);
+            }
+        }
+    }
+}
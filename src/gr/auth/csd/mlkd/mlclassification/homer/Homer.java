@@ -16,6 +16,10 @@
  */
 package gr.auth.csd.mlkd.mlclassification.homer;
 
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.iterator.TObjectDoubleIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
 import gnu.trove.set.hash.THashSet;
 import gnu.trove.set.hash.TIntHashSet;
 import gr.auth.csd.mlkd.utils.CmdOption;
@@ -25,12 +29,20 @@ import gr.auth.csd.mlkd.mlclassification.MLClassifier;
 import gr.auth.csd.mlkd.mlclassification.svm.SVM;
 import gr.auth.csd.mlkd.preprocessing.Parser;
 import gr.auth.csd.mlkd.preprocessing.Corpus;
+import gr.auth.csd.mlkd.preprocessing.CorpusIndex;
 import gr.auth.csd.mlkd.preprocessing.CorpusJSON;
 import gr.auth.csd.mlkd.preprocessing.Dictionary;
 import gr.auth.csd.mlkd.preprocessing.Document;
 import gr.auth.csd.mlkd.preprocessing.Labels;
+import gr.auth.csd.mlkd.preprocessing.NodeDictionary;
+import gr.auth.csd.mlkd.utils.Pair;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -47,7 +59,7 @@ import org.codehaus.jackson.JsonGenerator;
  */
 public class Homer extends MLClassifier {
 
-    Tree hierarchy = null;
+    Tree<TIntHashSet> hierarchy = null;
     private CorpusJSON entireTrainingCorpus = null;
     CorpusJSON entireTestCorpus = null;
     final String modelsDirectory;
@@ -56,6 +68,7 @@ public class Homer extends MLClassifier {
     public static String baseClassifier = "BR";
     CmdOption option;
     private final boolean eval = false;
+    protected final HomerReport report = new HomerReport();
 
     public Homer(HomerCmdOption option) {
         super(option.trainingFile, option.testFile, option.dictionary, option.labels, option.threads);
@@ -63,7 +76,7 @@ public class Homer extends MLClassifier {
         this.globalLabels = Labels.readLabels(option.labels);
         this.metaLabelerFile = option.metalabelerFile;
         this.option = option;
-        hierarchy = Tree.readTree(option.treeFile);
+        hierarchy = Tree.readTree(option.treeFile, dictionary);
         this.entireTrainingCorpus = new CorpusJSON(option.trainingFile);
         this.entireTestCorpus = new CorpusJSON(option.testFile);
         this.testFile = option.testFile;
@@ -76,7 +89,7 @@ public class Homer extends MLClassifier {
         modelsDirectory = option.modelsDirectory;
         this.metaLabelerFile = option.metalabelerFile;
         this.option = option;
-        hierarchy = Tree.readTree(option.treeFile);
+        hierarchy = Tree.readTree(option.treeFile, dictionary);
         if (option.trainingFile != null) {
             this.entireTrainingCorpus = new CorpusJSON(option.trainingFile);
         }
@@ -95,26 +108,33 @@ public class Homer extends MLClassifier {
         this.modelsDirectory = option.modelsDirectory;
         this.metaLabelerFile = option.metalabelerFile;
         this.option = option;
-        hierarchy = Tree.readTree(option.treeFile);
+        hierarchy = Tree.readTree(option.treeFile, dictionary);
         this.trainingFile = option.trainingFile;
         this.testFile = option.testFile;
     }
-    public CorpusJSON createJSONTrainingDataset(Node n, CorpusJSON entireFile, String outputFile) {
+    public CorpusJSON createJSONTrainingDataset(Node<TIntHashSet> n, CorpusJSON entireFile, String outputFile) {
 
-        Document doc;
         TreeSet<Document> docList = new TreeSet<>();
-        entireFile.reset();
-        TIntHashSet labels = (TIntHashSet) n.getData();
-        List<Node> children = n.getChildren();
-        while ((doc = entireFile.nextDocument()) != null) {
+        TIntHashSet labels = n.getData();
+        List<Node<TIntHashSet>> children = n.getChildren();
+        // only the documents of the node's labels, from the postings of the corpus index
+        CorpusIndex corpusIndex = entireFile.index();
+        TIntHashSet ordinals = new TIntHashSet();
+        TIntIterator lit = labels.iterator();
+        while (lit.hasNext()) {
+            ordinals.addAll(corpusIndex.documents(globalLabels.getLabel(lit.next())));
+        }
+        TIntArrayList sorted = new TIntArrayList(ordinals.toArray());
+        sorted.sort();
+        for (Document doc : entireFile.documents(sorted)) {
             THashSet<String> newDocLabels = new THashSet<>();
             boolean add = false;
             for (String label : doc.getLabels()) {
                 int index = globalLabels.getIndex(label);
                 if (labels.contains(index)) {
                     if (!n.isLeaf()) {
-                        for (Node child : children) {
-                            if (((TIntHashSet) child.getData()).contains(index)) {
+                        for (Node<TIntHashSet> child : children) {
+                            if (child.getData().contains(index)) {
                                 newDocLabels.add("L" + child.getId());
                             }
                         }
@@ -132,21 +152,21 @@ public class Homer extends MLClassifier {
         return writeFile(outputFile, docList);
     }
 
-    public CorpusJSON createJSONTestDatasetForEvaluation(Node n, CorpusJSON testFile, String outputFile) {
+    public CorpusJSON createJSONTestDatasetForEvaluation(Node<TIntHashSet> n, CorpusJSON testFile, String outputFile) {
 
         Document doc;
         TreeSet<Document> docList = new TreeSet<>();
         testFile.reset();
-        TIntHashSet labels = (TIntHashSet) n.getData();
-        List<Node> children = n.getChildren();
+        TIntHashSet labels = n.getData();
+        List<Node<TIntHashSet>> children = n.getChildren();
         while ((doc = testFile.nextDocument()) != null) {
             THashSet<String> newDocLabels = new THashSet<>();
             for (String label : doc.getLabels()) {
                 int index = globalLabels.getIndex(label);
                 if (labels.contains(index)) {
                     if (!n.isLeaf()) {
-                        for (Node child : children) {
-                            if (((TIntHashSet) child.getData()).contains(index)) {
+                        for (Node<TIntHashSet> child : children) {
+                            if (child.getData().contains(index)) {
                                 newDocLabels.add("L" + child.getId());
                             }
                         }
@@ -163,20 +183,15 @@ public class Homer extends MLClassifier {
 
     public CorpusJSON createJSONTestDataset(CorpusJSON entireFile, String outputFile, THashSet<String> pmids) {
         Document doc;
-        TreeSet<Document> docList = new TreeSet<>();
-        entireFile.reset();
-        while ((doc = entireFile.nextDocument()) != null) {
-            if (pmids.contains(doc.getId())) {
-                docList.add(doc);
-            }
-
-        }
+        TreeSet<Document> docList = new TreeSet<>(entireFile.documents(pmids));
         return writeFile(outputFile, docList);
     }
 
     public CorpusJSON writeFile(String outputFile, TreeSet<Document> docList) {
         JsonFactory jfactory = new JsonFactory();
-        try (JsonGenerator jGenerator = jfactory.createJsonGenerator(new File(outputFile), JsonEncoding.UTF8)) {
+        CorpusIndex index = new CorpusIndex();
+        try (FileOutputStream out = new FileOutputStream(outputFile);
+                JsonGenerator jGenerator = jfactory.createJsonGenerator(out, JsonEncoding.UTF8)) {
             jGenerator.writeStartObject();
             jGenerator.writeFieldName("documents");
             jGenerator.writeStartArray();
@@ -187,6 +202,8 @@ public class Homer extends MLClassifier {
                 for (String l : doc.getLabels()) {
                     ls.add(l);
                 }
+                jGenerator.flush();
+                index.add(out.getChannel().position(), doc.getId(), ls);
                 Parser.write(jGenerator, doc.getId(), doc.getTitle(), doc.getAbs(), Integer.toString(doc.getYear()), doc.getJournal(), ls, doc.getBody());
             }
 
@@ -195,49 +212,94 @@ public class Homer extends MLClassifier {
         } catch (Exception ex) {
             Logger.getLogger(Homer.class.getName()).log(Level.SEVERE, null, ex);
         }
+        index.save(outputFile);
         return new CorpusJSON(outputFile);
     }
 
-    public void trainPerNode(Node n) {
+    public void trainPerNode(Node<TIntHashSet> n) {
+        trainPerNode(n, null);
+    }
+
+    /**
+     * Trains the subtree rooted at n. If nodes is not null, only the nodes
+     * with these ids are (re)trained and the rest keep their models.
+     */
+    public void trainPerNode(Node<TIntHashSet> n, TIntHashSet nodes) {
+        if (nodes == null || nodes.contains(n.getId())) {
+            if (!trainNode(n)) {
+                return;
+            }
+        }
+        if (n.isLeaf()) {
+            return;
+        }
+        List<Node<TIntHashSet>> children = n.getChildren();
+        for (Node<TIntHashSet> child : children) {
+            trainPerNode(child, nodes);
+        }
+    }
+
+    protected boolean trainNode(Node<TIntHashSet> n) {
         int id = n.getId();
 
         CorpusJSON training = createJSONTrainingDataset(n, entireTrainingCorpus, trainingFile + id);
         int size = CorpusJSON.size(training);
         System.out.println("Training node #" + id + " corpus size:" + size + ", leaf:" + n.isLeaf());
         if (size == 0) {
-            return;
+            return false;
         }
         Labels labelsPerNode = new Labels(training);
         n.setMetaLabels(labelsPerNode);
-//        Dictionary dictionaryPerNode = new Dictionary(training, option.lowUnigrams, option.highUnigrams,
-//                option.lowBigrams, option.highBigrams);
-        n.setDictionary(dictionary/*PerNode*/);
-        MLClassifier mlc = new BinaryRelevanceSVM(n.getDictionary(), n.getMetaLabels(), training, null, modelsDirectory + id, threads, false);
+        n.setDictionary(dictionaryPerNode(training, labelsPerNode));
+        BinaryRelevanceSVM mlc = new BinaryRelevanceSVM(n.getDictionary(), n.getMetaLabels(), training, null, modelsDirectory + id, threads, false);
         mlc.train();
 
-        cleanup(option);
+        HomerReport.NodeStats stats = report.get(id);
+        stats.trainingDocuments = size;
+        stats.labels = labelsPerNode.getSize();
+        stats.features = n.getDictionary().getId().size();
+        for (int positives : labelsPerNode.getPositiveInstances().values()) {
+            stats.positives += positives;
+        }
+        stats.vectorizationTime = mlc.getVectorizationTime();
+        stats.trainingTime = mlc.getTrainingTime();
+        stats.modelWriteTime = mlc.getModelWriteTime();
+        stats.modelBytes = HomerReport.directorySize(modelsDirectory + id);
 
-        List<Node> children = n.getChildren();
+        cleanup(option);
+        return true;
+    }
 
-        if (n.isLeaf()) {
-            return;
-        }
-        for (Node child : children) {
-            trainPerNode(child);
+    /**
+     * The global dictionary, or with -nodeFeatures df/chi2 only the features
+     * selected from the node's own training documents, renumbered compactly.
+     */
+    protected Dictionary dictionaryPerNode(CorpusJSON training, Labels labelsPerNode) {
+        HomerCmdOption homerOption = (HomerCmdOption) option;
+        if ("none".equals(homerOption.nodeFeatures)) {
+            return dictionary;
         }
+        NodeDictionary d = NodeDictionary.select(dictionary, training, labelsPerNode, homerOption.nodeFeatures,
+                homerOption.nodeMinDf, homerOption.nodeMaxFeatures);
+        System.out.println("Selected " + d.getId().size() + " of " + dictionary.getId().size() + " features");
+        return d;
     }
 
-    public void predictPerNode(Node n, CorpusJSON testSet) {
+    public void predictPerNode(Node<TIntHashSet> n, CorpusJSON testSet) {
         //System.out.println("Node "+n.getId()+"predicting, labelsSet:"+n.getMetaLabels().getLabels().toString());
         MLClassifier mlc;
         int size = CorpusJSON.size(testSet);
         if (size == 0) {
             return;
         }
+        HomerReport.NodeStats stats = report.get(n.getId());
+        stats.testDocumentsIn = size;
+        long start = System.currentTimeMillis();
         mlc = new BinaryRelevanceSVM(n.getDictionary(), n.getMetaLabels(), null, testSet, modelsDirectory + n.getId(), threads, false);
         BinaryClassifier.setPredictions(null);
         SVM.setTest(null);
         TreeMap<String, THashSet<String>> bipartitionsPerNode = mlc.predict(null);
+        stats.scoringTime = System.currentTimeMillis() - start;
         if (eval) {
             if (!n.isLeaf()) {
                 System.out.println("Node#" + n.getId() + " depth:" + n.getDepth() + " silhouette:" + n.getSilhouette());
@@ -248,17 +310,7 @@ public class Homer extends MLClassifier {
         cleanup(option);
 
         if (n.isLeaf()) {
-            Iterator<Map.Entry<String, THashSet<String>>> it = bipartitionsPerNode.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<String, THashSet<String>> next = it.next();
-                String doc = next.getKey();
-                THashSet<String> predictedLabelsPerNode = next.getValue();
-                if (bipartitions.containsKey(doc)) {
-                    bipartitions.get(doc).addAll(predictedLabelsPerNode);
-                } else {
-                    bipartitions.put(doc, predictedLabelsPerNode);
-                }
-            }
+            addBipartitions(bipartitionsPerNode);
         } else {
             for (int label = 0; label < n.getMetaLabels().getSize(); label++) {
                 String metaLabel = n.getMetaLabels().getLabel(label + 1);
@@ -271,7 +323,8 @@ public class Homer extends MLClassifier {
                         docs.add(doc + "");
                     }
                 }
-                Node child = (Node) hierarchy.getNodeMap().get(metaLabel);
+                stats.testDocumentsOut += docs.size();
+                Node<TIntHashSet> child = hierarchy.getNodeMap().get(metaLabel);
                 CorpusJSON childTestSet = createJSONTestDataset(entireTestCorpus, testFile + child.getId(), docs);
                 predictPerNode(child, childTestSet);
             }
@@ -280,12 +333,160 @@ public class Homer extends MLClassifier {
         //System.out.println(bipartitions.toString());
     }
 
+    protected void addBipartitions(TreeMap<String, THashSet<String>> bipartitionsPerNode) {
+        Iterator<Map.Entry<String, THashSet<String>>> it = bipartitionsPerNode.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, THashSet<String>> next = it.next();
+            String doc = next.getKey();
+            THashSet<String> predictedLabelsPerNode = next.getValue();
+            if (bipartitions.containsKey(doc)) {
+                bipartitions.get(doc).addAll(predictedLabelsPerNode);
+            } else {
+                bipartitions.put(doc, predictedLabelsPerNode);
+            }
+        }
+    }
+
+    /**
+     * Level-wise prediction with a bounded number of routes per document.
+     * Node scores are calibrated with a sigmoid over the SVM margins and a
+     * path score is the product of the node scores from the root. Depending
+     * on the routing option a document follows at most topK children of
+     * each node (topk), only the beamWidth best paths per level (beam), or
+     * every path whose score stays above pathThreshold (threshold).
+     */
+    protected void predictBounded(Node<TIntHashSet> root) {
+        HomerCmdOption homerOption = (HomerCmdOption) option;
+        Map<Node<TIntHashSet>, TObjectDoubleHashMap<String>> frontier = new LinkedHashMap<>();
+        TObjectDoubleHashMap<String> rootScores = new TObjectDoubleHashMap<>();
+        for (String doc : docMap) {
+            rootScores.put(doc, 1.0);
+        }
+        frontier.put(root, rootScores);
+        while (!frontier.isEmpty()) {
+            Map<Node<TIntHashSet>, TObjectDoubleHashMap<String>> nextLevel = new LinkedHashMap<>();
+            for (Map.Entry<Node<TIntHashSet>, TObjectDoubleHashMap<String>> entry : frontier.entrySet()) {
+                Node<TIntHashSet> n = entry.getKey();
+                TObjectDoubleHashMap<String> pathScores = entry.getValue();
+                if (n.getMetaLabels() == null || pathScores.isEmpty()) {
+                    continue;
+                }
+                CorpusJSON testSet = (n == root) ? entireTestCorpus
+                        : createJSONTestDataset(entireTestCorpus, testFile + n.getId(), new THashSet<>(pathScores.keySet()));
+                HomerReport.NodeStats stats = report.get(n.getId());
+                stats.testDocumentsIn = pathScores.size();
+                long start = System.currentTimeMillis();
+                BinaryRelevanceSVM mlc = new BinaryRelevanceSVM(n.getDictionary(), n.getMetaLabels(), null, testSet, modelsDirectory + n.getId(), threads, false);
+                BinaryClassifier.setPredictions(null);
+                SVM.setTest(null);
+                if (n.isLeaf()) {
+                    addBipartitions(mlc.predict(null));
+                } else {
+                    route(n, mlc.predictScores(null), mlc.getDocMap(), pathScores, nextLevel, homerOption);
+                }
+                stats.scoringTime = System.currentTimeMillis() - start;
+                cleanup(option);
+            }
+            if ("beam".equals(homerOption.routing)) {
+                pruneBeam(nextLevel, homerOption.beamWidth);
+            }
+            for (Map.Entry<Node<TIntHashSet>, TObjectDoubleHashMap<String>> entry : nextLevel.entrySet()) {
+                report.get(entry.getKey().getParent().getId()).testDocumentsOut += entry.getValue().size();
+            }
+            frontier = nextLevel;
+        }
+    }
+
+    private void route(Node<TIntHashSet> n, double[][] margins, String[] docs, TObjectDoubleHashMap<String> pathScores,
+            Map<Node<TIntHashSet>, TObjectDoubleHashMap<String>> nextLevel, HomerCmdOption homerOption) {
+        Labels metaLabels = n.getMetaLabels();
+        for (int d = 0; d < docs.length; d++) {
+            double parentScore = pathScores.get(docs[d]);
+            List<Pair> candidates = new ArrayList<>();
+            for (int label = 0; label < metaLabels.getSize(); label++) {
+                double margin = margins[d][label];
+                double pathScore = parentScore / (1 + Math.exp(-margin));
+                boolean routed = ("threshold".equals(homerOption.routing))
+                        ? pathScore >= homerOption.pathThreshold : margin > 0;
+                if (routed) {
+                    Node<TIntHashSet> child = hierarchy.getNodeMap().get(metaLabels.getLabel(label + 1));
+                    candidates.add(new Pair(child, pathScore));
+                }
+            }
+            if ("topk".equals(homerOption.routing) && candidates.size() > homerOption.topK) {
+                Collections.sort(candidates);
+                candidates = candidates.subList(0, homerOption.topK);
+            }
+            for (Pair p : candidates) {
+                @SuppressWarnings("unchecked")
+                Node<TIntHashSet> child = (Node<TIntHashSet>) p.first;
+                if (!nextLevel.containsKey(child)) {
+                    nextLevel.put(child, new TObjectDoubleHashMap<String>());
+                }
+                nextLevel.get(child).put(docs[d], (Double) p.second);
+            }
+        }
+    }
+
+    private void pruneBeam(Map<Node<TIntHashSet>, TObjectDoubleHashMap<String>> level, int beamWidth) {
+        Map<String, List<Pair>> perDoc = new HashMap<>();
+        for (Map.Entry<Node<TIntHashSet>, TObjectDoubleHashMap<String>> entry : level.entrySet()) {
+            TObjectDoubleIterator<String> it = entry.getValue().iterator();
+            while (it.hasNext()) {
+                it.advance();
+                if (!perDoc.containsKey(it.key())) {
+                    perDoc.put(it.key(), new ArrayList<Pair>());
+                }
+                perDoc.get(it.key()).add(new Pair(entry.getKey(), it.value()));
+            }
+        }
+        for (Map.Entry<String, List<Pair>> entry : perDoc.entrySet()) {
+            List<Pair> paths = entry.getValue();
+            if (paths.size() <= beamWidth) {
+                continue;
+            }
+            Collections.sort(paths);
+            for (Pair p : paths.subList(beamWidth, paths.size())) {
+                level.get(p.first).remove(entry.getKey());
+            }
+        }
+    }
+
     @Override
     public void train() {
-        Node root = hierarchy.getRoot();
-        trainPerNode(root);
+        train(null);
+    }
+
+    /* retrains only the given nodes, or the whole hierarchy if nodes is null */
+    public void train(TIntHashSet nodes) {
+        Node<TIntHashSet> root = hierarchy.getRoot();
+        trainPerNode(root, nodes);
+        writeTree();
+        writeReport();
+    }
+
+    public void writeTree() {
         System.out.println("Writing updated tree...");
-        hierarchy.writeTree(((HomerCmdOption) option).treeFile);
+        if (((HomerCmdOption) option).compactTree) {
+            Tree.writeCompact(hierarchy, ((HomerCmdOption) option).treeFile, option.dictionary);
+        } else {
+            hierarchy.writeTree(((HomerCmdOption) option).treeFile);
+        }
+    }
+
+    public Tree<TIntHashSet> getHierarchy() {
+        return hierarchy;
+    }
+
+    public HomerReport getReport() {
+        return report;
+    }
+
+    public void writeReport() {
+        String reportFile = ((HomerCmdOption) option).reportFile;
+        if (reportFile != null) {
+            report.write(hierarchy, reportFile);
+        }
     }
 
     @Override
@@ -293,8 +494,13 @@ public class Homer extends MLClassifier {
         for (int doc = 0; doc < docMap.length; doc++) {
             bipartitions.put(docMap[doc], new THashSet<String>());
         }
-        Node root = hierarchy.getRoot();
-        predictPerNode(root, entireTestCorpus);
+        Node<TIntHashSet> root = hierarchy.getRoot();
+        if ("all".equals(((HomerCmdOption) option).routing)) {
+            predictPerNode(root, entireTestCorpus);
+        } else {
+            predictBounded(root);
+        }
+        writeReport();
         return bipartitions;
     }
 
@@ -316,7 +522,7 @@ public class Homer extends MLClassifier {
 
     public void finalCleanup(CmdOption option) {
         boolean deleted = true;
-        Node root = hierarchy.getRoot();
+        Node<TIntHashSet> root = hierarchy.getRoot();
         if (cleanupPerNode(root)) {
             System.out.println("Cleanup completed successfully!");
         }
@@ -328,18 +534,20 @@ public class Homer extends MLClassifier {
 //        boolean g = toDelete.delete();
     }
 
-    protected boolean cleanupPerNode(Node n) {
+    protected boolean cleanupPerNode(Node<TIntHashSet> n) {
         File toDelete = new File(testFile + n.getId());
         File toDelete2 = new File(trainingFile + n.getId());
 
         boolean cleanupPerNode = false;
         if (!n.isLeaf()) {
-            for (Node child : ((List<Node>) n.getChildren())) {
+            for (Node<TIntHashSet> child : (n.getChildren())) {
                 cleanupPerNode = cleanupPerNode(child);
             }
         } else {
             cleanupPerNode = true;
         }
+        CorpusIndex.remove(testFile + n.getId());
+        CorpusIndex.remove(trainingFile + n.getId());
         return toDelete.delete() & toDelete2.delete() & cleanupPerNode;
     }
 
@@ -32,16 +32,45 @@ public class HomerCmdOption extends CmdOption {
     @Option(name = "-treeFile", usage = "HOMER label hierarchy")
     public String treeFile = "tree";
     
+    @Option(name = "-compactTree", usage = "write the hierarchy in the compact binary format")
+    public boolean compactTree = false;
+    
     @Option(name = "-maxClusterSize", usage = "HOMER maxClusterSize")
     public int maxClusterSize = 40;
     
     @Option(name = "-numOfClusters", usage = "number of clusters at each level")
     public int numOfClusters = 3;
     
+    @Option(name = "-costBalance", usage = "balance clusters by training cost (documents of the union of their labels)")
+    public boolean costBalance = false;
+    
+    @Option(name = "-costSlack", usage = "allowed cost of a cluster above the average when -costBalance is set")
+    public double costSlack = 0.1;
+    
     @Option(name = "-vectorMethod", usage = "Vectorizing Method, 1 or 2")
     public String vectorMethod = "cd";//1-cd or 2-llda
     @Option(name = "-clusteringMethod", usage = "1, 2, 3")
-    public String clusteringMethod = "kmeans";//1-balanced kmeans, 2-optics, 3-hierarchical, 4-dbscan
+    public String clusteringMethod = "kmeans";//1-balanced kmeans, 2-optics, 3-hierarchical, 4-dbscan, 5-spherical, 6-knngraph, 7-minibatch
+    @Option(name = "-clusteringThreads", usage = "threads for building the hierarchy, 0 uses all cores")
+    public int clusteringThreads = 0;
+    @Option(name = "-kmeansIterations", usage = "max iterations (passes over the labels for minibatch) of the spherical and minibatch k-means")
+    public int kmeansIterations = 20;
+    @Option(name = "-batchSize", usage = "labels per batch of the minibatch k-means")
+    public int batchSize = 1024;
+    @Option(name = "-sketch", usage = "cluster d-dimensional count sketches of the label vectors (sqEucl or Cos), 0 disables")
+    public int sketch = 0;
+    @Option(name = "-silhouette", usage = "silhouette of every split: none, exact, sampled or centroid (the last two approximate it, knngraph samples instead of exact)")
+    public String silhouette = "exact";
+    @Option(name = "-silhouetteSample", usage = "labels per cluster evaluated by the sampled silhouette")
+    public int silhouetteSample = 100;
+    @Option(name = "-silhouetteEvery", usage = "compute the silhouette at every n-th level of the hierarchy")
+    public int silhouetteEvery = 1;
+    @Option(name = "-lshBands", usage = "MinHash bands of the knngraph clustering, more find more neighbors")
+    public int lshBands = 20;
+    @Option(name = "-lshRows", usage = "MinHash rows per band of the knngraph clustering, more prune more pairs")
+    public int lshRows = 2;
+    @Option(name = "-knn", usage = "neighbors kept per label in the knngraph clustering")
+    public int knn = 10;
     @Option(name = "-hierarchicalMethod", usage = "hierarchical method")
     public String hierarchicalMethod = "anderberg";//1-anderberg, 2-agnes, 3-hdbscan
     @Option(name = "-classifier", usage = "base classifier")
@@ -52,6 +81,51 @@ public class HomerCmdOption extends CmdOption {
     @Option(name = "-distanceFunction", usage = "distance function")
     public String distanceFunction = "Jacc";
     //"sqEucl", "Jacc", "Hamm",  "Cos", "JS"
+
+    @Option(name = "-nodeFeatures", usage = "per-node feature selection: none, df or chi2")
+    public String nodeFeatures = "none";
+
+    @Option(name = "-nodeMinDf", usage = "min document frequency of a feature within a node's training documents")
+    public int nodeMinDf = 2;
+
+    @Option(name = "-nodeMaxFeatures", usage = "max features kept per node, 0 keeps all")
+    public int nodeMaxFeatures = 0;
+
+    @Option(name = "-workers", usage = "worker JVMs to launch for training the subtrees below -coordinatorLevels")
+    public int workers = 0;
+
+    @Option(name = "-coordinatorLevels", usage = "levels of the hierarchy trained by the coordinator itself")
+    public int coordinatorLevels = 1;
+
+    @Option(name = "-coordinatorPort", usage = "port workers connect to, 0 picks a free one (remote workers need a fixed port)")
+    public int coordinatorPort = 0;
+
+    @Option(name = "-workerJvmArgs", usage = "JVM arguments of the launched workers, e.g. \"-Xmx8g\"")
+    public String workerJvmArgs = "";
+
+    @Option(name = "-workerTimeout", usage = "seconds without worker progress (also per subtree on a worker) after which the coordinator trains the remaining subtrees itself")
+    public int workerTimeout = 600;
+
+    @Option(name = "-taskRetries", usage = "times a subtree is retried on workers before the coordinator trains it itself")
+    public int taskRetries = 2;
+
+    @Option(name = "-coordinator", usage = "host:port of the coordinator, runs this JVM as a HOMER worker")
+    public String coordinator = null;
+
+    @Option(name = "-reportFile", usage = "write per-node training/prediction statistics to reportFile.json and reportFile.csv")
+    public String reportFile = null;
+
+    @Option(name = "-routing", usage = "prediction routing: all, topk, beam or threshold")
+    public String routing = "all";
+
+    @Option(name = "-topK", usage = "max children per node a document is routed to (topk routing)")
+    public int topK = 2;
+
+    @Option(name = "-beamWidth", usage = "max nodes per level a document is routed to (beam routing)")
+    public int beamWidth = 5;
+
+    @Option(name = "-pathThreshold", usage = "min path score for routing a document to a child (threshold routing)")
+    public double pathThreshold = 0.1;
         
 
     public HomerCmdOption(String[] args) {
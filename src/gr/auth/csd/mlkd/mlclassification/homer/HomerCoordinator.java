@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2016 Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.auth.csd.mlkd.mlclassification.homer;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+import gr.auth.csd.mlkd.preprocessing.Dictionary;
+import gr.auth.csd.mlkd.preprocessing.Labels;
+import gr.auth.csd.mlkd.preprocessing.NodeDictionary;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ *
+ * Trains a HOMER hierarchy with several JVMs. The coordinator trains the top
+ * coordinatorLevels levels itself and hands every subtree below them to a
+ * HomerWorker, which trains it from the shared training file and models
+ * directory and answers with a completion manifest: the meta-labels,
+ * features and statistics of the nodes it trained. Local workers are
+ * launched as processes, each in its own working directory; workers on
+ * other hosts join by connecting to coordinatorPort. Subtrees of workers
+ * that disconnect are handed to the next worker, and if no worker is left
+ * the coordinator trains the rest itself.
+ */
+public class HomerCoordinator {
+
+    static final String TRAIN = "TRAIN";
+    static final String DONE = "DONE";
+    static final String FAILED = "FAILED";
+    static final String EXIT = "EXIT";
+    private static final int MANIFEST_MAGIC = 0x484d4e46;
+
+    private final Homer homer;
+    private final HomerCmdOption option;
+    private final String[] args;
+    private final LinkedBlockingDeque<Integer> tasks = new LinkedBlockingDeque<>();
+    private final AtomicInteger connected = new AtomicInteger();
+    /* subtrees that failed too often on workers, trained by the coordinator */
+    private final LinkedBlockingDeque<Integer> local = new LinkedBlockingDeque<>();
+    private final TIntIntHashMap failures = new TIntIntHashMap();
+    private volatile long lastProgress;
+    private CountDownLatch remaining;
+
+    public HomerCoordinator(Homer homer, HomerCmdOption option, String[] args) {
+        this.homer = homer;
+        this.option = option;
+        this.args = args;
+    }
+
+    public void train() {
+        List<Node<TIntHashSet>> subtrees = new ArrayList<>();
+        trainTop(homer.getHierarchy().getRoot(), 0, subtrees);
+        subtrees.sort((a, b) -> Integer.compare(b.getData().size(), a.getData().size()));
+        for (Node<TIntHashSet> n : subtrees) {
+            tasks.add(n.getId());
+        }
+        remaining = new CountDownLatch(subtrees.size());
+        System.out.println(subtrees.size() + " subtrees to train with " + option.workers + " local workers");
+        if (!subtrees.isEmpty()) {
+            distribute();
+        }
+        homer.writeTree();
+        homer.writeReport();
+    }
+
+    /* trains the nodes above the subtrees and collects the subtree roots */
+    private void trainTop(Node<TIntHashSet> n, int level, List<Node<TIntHashSet>> subtrees) {
+        if (level == option.coordinatorLevels) {
+            subtrees.add(n);
+            return;
+        }
+        if (!homer.trainNode(n) || n.isLeaf()) {
+            return;
+        }
+        for (Node<TIntHashSet> child : n.getChildren()) {
+            trainTop(child, level + 1, subtrees);
+        }
+    }
+
+    private void distribute() {
+        List<Process> processes = new ArrayList<>();
+        try (ServerSocket server = new ServerSocket(option.coordinatorPort)) {
+            server.setSoTimeout(1000);
+            String address = "localhost:" + server.getLocalPort();
+            System.out.println("Coordinator listening on port " + server.getLocalPort());
+            for (int w = 0; w < option.workers; w++) {
+                processes.add(launch(w, address));
+            }
+            Thread acceptor = new Thread(() -> accept(server));
+            acceptor.start();
+            lastProgress = System.currentTimeMillis();
+            while (!remaining.await(5, TimeUnit.SECONDS)) {
+                Integer task;
+                while ((task = local.poll()) != null) {
+                    trainLocally(task);
+                }
+                boolean stalled = System.currentTimeMillis() - lastProgress > option.workerTimeout * 1000L;
+                if (connected.get() == 0 && (stalled || (option.coordinatorPort == 0 && !alive(processes)))) {
+                    System.out.println((stalled ? "No worker progress for " + option.workerTimeout + " s" : "No workers left")
+                            + ", training the remaining subtrees locally");
+                    while ((task = tasks.poll()) != null) {
+                        trainLocally(task);
+                    }
+                }
+            }
+            acceptor.join();
+            for (Process p : processes) {
+                if (!p.waitFor(option.workerTimeout, TimeUnit.SECONDS)) {
+                    p.destroy();
+                }
+            }
+        } catch (IOException | InterruptedException ex) {
+            Logger.getLogger(HomerCoordinator.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /* trains a subtree in this JVM, under the lock that merges the manifests of the workers */
+    private synchronized void trainLocally(int task) {
+        homer.trainPerNode(homer.getHierarchy().getNodeMap().get("L" + task));
+        remaining.countDown();
+        lastProgress = System.currentTimeMillis();
+    }
+
+    /* queues a failed subtree again, or for local training once it failed more than taskRetries times */
+    private void retry(int task) {
+        int failed;
+        synchronized (failures) {
+            failed = failures.adjustOrPutValue(task, 1, 1);
+        }
+        if (failed > option.taskRetries) {
+            System.out.println("Subtree #" + task + " failed " + failed + " times, training it locally");
+            local.add(task);
+        } else {
+            tasks.addFirst(task);
+        }
+    }
+
+    private Process launch(int w, String address) throws IOException {
+        File directory = new File(new File(option.modelsDirectory).getAbsoluteFile().getParentFile(), "worker" + w);
+        directory.mkdirs();
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if (!option.workerJvmArgs.trim().isEmpty()) {
+            command.addAll(Arrays.asList(option.workerJvmArgs.trim().split("\\s+")));
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(HomerWorker.class.getName());
+        command.addAll(Arrays.asList(args));
+        command.addAll(Arrays.asList("-trainingFile", absolute(option.trainingFile),
+                "-dictionary", absolute(option.dictionary), "-labels", absolute(option.labels),
+                "-treeFile", absolute(option.treeFile), "-modelsFolder", absolute(option.modelsDirectory),
+                "-workers", "0", "-coordinator", address));
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(directory);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(new File(directory, "worker.log"));
+        System.out.println("Launching worker " + w + " in " + directory);
+        return pb.start();
+    }
+
+    private static String absolute(String path) {
+        return new File(path).getAbsolutePath();
+    }
+
+    private static boolean alive(List<Process> processes) {
+        for (Process p : processes) {
+            if (p.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void accept(ServerSocket server) {
+        while (remaining.getCount() > 0) {
+            try {
+                Socket socket = server.accept();
+                new Thread(() -> serve(socket)).start();
+            } catch (SocketTimeoutException ex) {
+                // check whether we are done
+            } catch (IOException ex) {
+                Logger.getLogger(HomerCoordinator.class.getName()).log(Level.SEVERE, null, ex);
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        connected.incrementAndGet();
+        Integer task = null;
+        String worker = socket.getRemoteSocketAddress().toString();
+        try (Socket s = socket;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            // a worker that does not answer within the timeout is taken as hung
+            s.setSoTimeout(option.workerTimeout * 1000);
+            worker = in.readUTF();
+            System.out.println("Worker " + worker + " connected");
+            while (remaining.getCount() > 0) {
+                task = tasks.poll(1, TimeUnit.SECONDS);
+                if (task == null) {
+                    continue;
+                }
+                out.writeUTF(TRAIN);
+                out.writeInt(task);
+                out.flush();
+                String reply = in.readUTF();
+                int node = in.readInt();
+                String manifest = in.readUTF();
+                if (DONE.equals(reply) && node == task && readManifest(manifest)) {
+                    System.out.println("Worker " + worker + " trained subtree #" + node);
+                    new File(manifest).delete();
+                    task = null;
+                    remaining.countDown();
+                    lastProgress = System.currentTimeMillis();
+                } else {
+                    System.out.println("Worker " + worker + " failed on subtree #" + node);
+                    retry(task);
+                    task = null;
+                    return;
+                }
+            }
+            out.writeUTF(EXIT);
+            out.flush();
+        } catch (SocketTimeoutException ex) {
+            System.out.println("Worker " + worker + " timed out" + ((task != null) ? " on subtree #" + task : ""));
+        } catch (IOException | InterruptedException ex) {
+            Logger.getLogger(HomerCoordinator.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            if (task != null) {
+                retry(task);
+            }
+            connected.decrementAndGet();
+        }
+    }
+
+    /**
+     * Writes the manifest of a trained subtree: for every node its id, its
+     * meta-labels with their positive instances, the global ids of its
+     * features (if it has its own) and its training statistics.
+     */
+    static void writeManifest(Homer homer, Node<TIntHashSet> root, String manifestFile) throws IOException {
+        List<Node<TIntHashSet>> nodes = new ArrayList<>();
+        collect(root, nodes);
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(manifestFile)))) {
+            output.writeInt(MANIFEST_MAGIC);
+            output.writeInt(root.getId());
+            output.writeInt(nodes.size());
+            for (Node<TIntHashSet> n : nodes) {
+                output.writeInt(n.getId());
+                Labels metaLabels = n.getMetaLabels();
+                output.writeInt(metaLabels.getSize());
+                for (int i = 1; i <= metaLabels.getSize(); i++) {
+                    String metaLabel = metaLabels.getLabel(i);
+                    output.writeUTF(metaLabel);
+                    output.writeInt(metaLabels.getPositiveInstances().get(metaLabel));
+                }
+                if (n.getDictionary() instanceof NodeDictionary) {
+                    int[] features = ((NodeDictionary) n.getDictionary()).getFeatures();
+                    output.writeInt(features.length);
+                    for (int feature : features) {
+                        output.writeInt(feature);
+                    }
+                } else {
+                    output.writeInt(-1);
+                }
+                HomerReport.NodeStats stats = homer.getReport().get(n.getId());
+                output.writeInt(stats.trainingDocuments);
+                output.writeInt(stats.labels);
+                output.writeInt(stats.features);
+                output.writeLong(stats.positives);
+                output.writeLong(stats.vectorizationTime);
+                output.writeLong(stats.trainingTime);
+                output.writeLong(stats.modelWriteTime);
+                output.writeLong(stats.modelBytes);
+            }
+        }
+    }
+
+    /* the trained nodes of a subtree, in the order trainPerNode visits them */
+    private static void collect(Node<TIntHashSet> n, List<Node<TIntHashSet>> nodes) {
+        if (n.getMetaLabels() == null) {
+            return;
+        }
+        nodes.add(n);
+        if (!n.isLeaf()) {
+            for (Node<TIntHashSet> child : n.getChildren()) {
+                collect(child, nodes);
+            }
+        }
+    }
+
+    private synchronized boolean readManifest(String manifestFile) {
+        Tree<TIntHashSet> hierarchy = homer.getHierarchy();
+        Dictionary dictionary = homer.getDictionary();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)))) {
+            if (input.readInt() != MANIFEST_MAGIC) {
+                System.out.println(manifestFile + " is not a manifest file.");
+                return false;
+            }
+            input.readInt();
+            int size = input.readInt();
+            for (int i = 0; i < size; i++) {
+                Node<TIntHashSet> n = hierarchy.getNodeMap().get("L" + input.readInt());
+                int numMetaLabels = input.readInt();
+                LinkedHashSet<String> names = new LinkedHashSet<>();
+                TObjectIntHashMap<String> positives = new TObjectIntHashMap<>();
+                for (int l = 0; l < numMetaLabels; l++) {
+                    String metaLabel = input.readUTF();
+                    names.add(metaLabel);
+                    positives.put(metaLabel, input.readInt());
+                }
+                Labels metaLabels = Labels.quiet(names);
+                metaLabels.getPositiveInstances().putAll(positives);
+                n.setMetaLabels(metaLabels);
+                int numFeatures = input.readInt();
+                if (numFeatures >= 0) {
+                    int[] features = new int[numFeatures];
+                    for (int f = 0; f < numFeatures; f++) {
+                        features[f] = input.readInt();
+                    }
+                    n.setDictionary(new NodeDictionary(dictionary, features));
+                } else {
+                    n.setDictionary(dictionary);
+                }
+                HomerReport.NodeStats stats = homer.getReport().get(n.getId());
+                stats.trainingDocuments = input.readInt();
+                stats.labels = input.readInt();
+                stats.features = input.readInt();
+                stats.positives = input.readLong();
+                stats.vectorizationTime = input.readLong();
+                stats.trainingTime = input.readLong();
+                stats.modelWriteTime = input.readLong();
+                stats.modelBytes = input.readLong();
+            }
+            return true;
+        } catch (IOException ex) {
+            Logger.getLogger(HomerCoordinator.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+}
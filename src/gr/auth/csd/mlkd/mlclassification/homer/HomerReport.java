@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.auth.csd.mlkd.mlclassification.homer;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ *
+ * Collects training and prediction statistics for every node of a HOMER
+ * hierarchy and writes them as a tree-shaped JSON file, where each node also
+ * carries the totals of its subtree, and as a flat CSV file.
+ */
+public class HomerReport {
+
+    public static class NodeStats {
+
+        public int trainingDocuments;
+        public int labels;
+        public int features;
+        public long positives;
+        public long vectorizationTime;
+        public long trainingTime;
+        public long modelWriteTime;
+        public long modelBytes;
+        public int testDocumentsIn;
+        public long testDocumentsOut;
+        public long scoringTime;
+    }
+
+    private final TIntObjectHashMap<NodeStats> stats = new TIntObjectHashMap<>();
+
+    public synchronized NodeStats get(int node) {
+        NodeStats s = stats.get(node);
+        if (s == null) {
+            s = new NodeStats();
+            stats.put(node, s);
+        }
+        return s;
+    }
+
+    public static long directorySize(String directory) {
+        long bytes = 0;
+        File[] files = new File(directory).listFiles();
+        if (files != null) {
+            for (File f : files) {
+                bytes += f.length();
+            }
+        }
+        return bytes;
+    }
+
+    public void write(Tree<?> hierarchy, String reportFile) {
+        writeJSON(hierarchy, reportFile + ".json");
+        writeCSV(hierarchy, reportFile + ".csv");
+    }
+
+    public void writeJSON(Tree<?> hierarchy, String file) {
+        JsonFactory jfactory = new JsonFactory();
+        try (JsonGenerator jGenerator = jfactory.createJsonGenerator(new File(file), JsonEncoding.UTF8)) {
+            jGenerator.useDefaultPrettyPrinter();
+            writeNode(jGenerator, hierarchy.getRoot());
+        } catch (IOException ex) {
+            Logger.getLogger(HomerReport.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /* writes the node and returns the totals of its subtree */
+    private NodeStats writeNode(JsonGenerator jGenerator, Node<?> n) throws IOException {
+        NodeStats s = get(n.getId());
+        jGenerator.writeStartObject();
+        jGenerator.writeNumberField("id", n.getId());
+        jGenerator.writeNumberField("depth", n.getDepth());
+        jGenerator.writeBooleanField("leaf", n.isLeaf());
+        writeStats(jGenerator, s);
+        NodeStats subtree = new NodeStats();
+        add(subtree, s);
+        if (!n.isLeaf()) {
+            jGenerator.writeArrayFieldStart("children");
+            for (Node<?> child : n.getChildren()) {
+                add(subtree, writeNode(jGenerator, child));
+            }
+            jGenerator.writeEndArray();
+        }
+        jGenerator.writeObjectFieldStart("subtree");
+        writeStats(jGenerator, subtree);
+        jGenerator.writeEndObject();
+        jGenerator.writeEndObject();
+        return subtree;
+    }
+
+    private void writeStats(JsonGenerator jGenerator, NodeStats s) throws IOException {
+        jGenerator.writeNumberField("trainingDocuments", s.trainingDocuments);
+        jGenerator.writeNumberField("labels", s.labels);
+        jGenerator.writeNumberField("features", s.features);
+        jGenerator.writeNumberField("positives", s.positives);
+        jGenerator.writeNumberField("vectorizationMs", s.vectorizationTime);
+        jGenerator.writeNumberField("trainingMs", s.trainingTime);
+        jGenerator.writeNumberField("modelWriteMs", s.modelWriteTime);
+        jGenerator.writeNumberField("modelBytes", s.modelBytes);
+        jGenerator.writeNumberField("testDocumentsIn", s.testDocumentsIn);
+        jGenerator.writeNumberField("testDocumentsOut", s.testDocumentsOut);
+        jGenerator.writeNumberField("scoringMs", s.scoringTime);
+    }
+
+    private void add(NodeStats total, NodeStats s) {
+        total.trainingDocuments += s.trainingDocuments;
+        total.labels += s.labels;
+        total.features += s.features;
+        total.positives += s.positives;
+        total.vectorizationTime += s.vectorizationTime;
+        total.trainingTime += s.trainingTime;
+        total.modelWriteTime += s.modelWriteTime;
+        total.modelBytes += s.modelBytes;
+        total.testDocumentsIn += s.testDocumentsIn;
+        total.testDocumentsOut += s.testDocumentsOut;
+        total.scoringTime += s.scoringTime;
+    }
+
+    public void writeCSV(Tree<?> hierarchy, String file) {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(file), Charset.forName("UTF-8")))) {
+            writer.println("id,parent,depth,leaf,trainingDocuments,labels,features,positives,vectorizationMs,"
+                    + "trainingMs,modelWriteMs,modelBytes,testDocumentsIn,testDocumentsOut,scoringMs");
+            writeRow(writer, hierarchy.getRoot());
+        } catch (IOException ex) {
+            Logger.getLogger(HomerReport.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void writeRow(PrintWriter writer, Node<?> n) {
+        NodeStats s = get(n.getId());
+        StringBuilder sb = new StringBuilder();
+        sb.append(n.getId()).append(",").append((n.getParent() == null) ? -1 : n.getParent().getId())
+                .append(",").append(n.getDepth()).append(",").append(n.isLeaf())
+                .append(",").append(s.trainingDocuments).append(",").append(s.labels)
+                .append(",").append(s.features).append(",").append(s.positives)
+                .append(",").append(s.vectorizationTime).append(",").append(s.trainingTime)
+                .append(",").append(s.modelWriteTime).append(",").append(s.modelBytes)
+                .append(",").append(s.testDocumentsIn).append(",").append(s.testDocumentsOut)
+                .append(",").append(s.scoringTime);
+        writer.println(sb.toString());
+        if (!n.isLeaf()) {
+            for (Node<?> child : n.getChildren()) {
+                writeRow(writer, child);
+            }
+        }
+    }
+}
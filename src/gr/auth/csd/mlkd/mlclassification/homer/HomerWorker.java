@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package gr.auth.csd.mlkd.mlclassification.homer;
+
+import gnu.trove.set.hash.TIntHashSet;
+import gr.auth.csd.mlkd.preprocessing.Document;
+import gr.auth.csd.mlkd.preprocessing.TokenCache;
+import gr.auth.csd.mlkd.preprocessing.TokenizingCorpus;
+import gr.auth.csd.mlkd.preprocessing.Dictionary;
+import gr.auth.csd.mlkd.preprocessing.Labels;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ *
+ * Trains subtrees for a HomerCoordinator. Takes the options of the
+ * coordinator plus -coordinator host:port; paths have to point to the same
+ * files as the coordinator's, so workers on other hosts need a shared
+ * filesystem. Run each worker in its own working directory, since the
+ * vectorized node data are written there.
+ */
+public class HomerWorker {
+
+    public static void main(String[] args) {
+        HomerCmdOption option = new HomerCmdOption(args);
+        TokenizingCorpus.setThreads(option.tokenizerThreads);
+        Document.setTokenizer(option.tokenizer);
+        TokenCache tokenCache = (option.tokenCache != null) ? new TokenCache(option.tokenCache) : null;
+        Document.setTokenCache(tokenCache);
+        option.testFile = null;
+        String[] address = option.coordinator.split(":");
+        Dictionary dictionary = Dictionary.readDictionary(option.dictionary);
+        Labels labels = Labels.readLabels(option.labels);
+        Homer homer = new Homer(option, dictionary, labels);
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+        try (Socket socket = new Socket(address[0], Integer.parseInt(address[1]));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            out.writeUTF(name);
+            out.flush();
+            while (HomerCoordinator.TRAIN.equals(in.readUTF())) {
+                int id = in.readInt();
+                Node<TIntHashSet> n = homer.getHierarchy().getNodeMap().get("L" + id);
+                String manifest = option.modelsDirectory + ".manifest" + id;
+                String reply = HomerCoordinator.DONE;
+                try {
+                    System.out.println("Training subtree #" + id);
+                    homer.trainPerNode(n);
+                    HomerCoordinator.writeManifest(homer, n, manifest);
+                } catch (IOException | RuntimeException ex) {
+                    Logger.getLogger(HomerWorker.class.getName()).log(Level.SEVERE, null, ex);
+                    reply = HomerCoordinator.FAILED;
+                }
+                out.writeUTF(reply);
+                out.writeInt(id);
+                out.writeUTF(manifest);
+                out.flush();
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(HomerWorker.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        if (tokenCache != null) {
+            tokenCache.close();
+        }
+    }
+}
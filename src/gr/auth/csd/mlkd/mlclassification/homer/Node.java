@@ -35,7 +35,7 @@ public class Node<T> implements Serializable {
     private final Node<T> parent;
     private ArrayList<Node<T>> children;
 
-    private final int id;
+    private int id;
     private Labels metaLabels = null;
     private Dictionary dictionary;
     
@@ -71,7 +71,7 @@ public class Node<T> implements Serializable {
         return silhouette;
     }
 
-    public Node(T data, Node<T> parent, ArrayList<Node<T>> children, int id, Tree tree) {
+    public Node(T data, Node<T> parent, ArrayList<Node<T>> children, int id, Tree<T> tree) {
         this.data = data;
         this.parent = parent;
         this.children = children;
@@ -83,13 +83,19 @@ public class Node<T> implements Serializable {
         this.id = id;
     }
 
-    public void setChildren(ArrayList<Node<T>> children, Tree tree) {
+    public void setChildren(ArrayList<Node<T>> children, Tree<T> tree) {
         this.children = children;
-        Tree.setNumberOfNodes(Tree.getNumberOfNodes() + children.size());
-        for (Node<T> child : children) {
-            tree.getNodeMap().put("L" + child.getId(), child);
+        Tree.addNodes(children.size());
+        synchronized (tree) {
+            for (Node<T> child : children) {
+                tree.getNodeMap().put("L" + child.getId(), child);
+            }
         }
+    }
 
+    /* gives a node that was built without an id its place in the numbering */
+    public void attach(int id) {
+        this.id = id;
     }
 
     public int getId() {
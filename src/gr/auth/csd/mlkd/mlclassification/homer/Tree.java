@@ -16,6 +16,15 @@
  */
 package gr.auth.csd.mlkd.mlclassification.homer;
 
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+import gr.auth.csd.mlkd.preprocessing.Dictionary;
+import gr.auth.csd.mlkd.preprocessing.Labels;
+import gr.auth.csd.mlkd.preprocessing.NodeDictionary;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -24,6 +33,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,25 +43,49 @@ import java.util.logging.Logger;
  * @param <T>
  */
 public class Tree<T> implements Serializable {
+    private static final int COMPACT_MAGIC = 0x484f4d52;
+    private static final int COMPACT_VERSION = 2;
     private static int numberOfNodes=0;
     private HashMap<String, Node<T>> nodeMap = new HashMap<>();
 
-    public static int getNumberOfNodes() {
+    public static synchronized int getNumberOfNodes() {
         return numberOfNodes;
     }
 
-    public static void setNumberOfNodes(int numberOfNodes) {
+    public static synchronized void setNumberOfNodes(int numberOfNodes) {
         Tree.numberOfNodes = numberOfNodes;
     }
 
-    public static Tree readTree(String treeFile) {
-        Tree hierarchy = null;
+    public static synchronized void addNodes(int nodes) {
+        Tree.numberOfNodes += nodes;
+    }
+
+    public static Tree<TIntHashSet> readTree(String treeFile) {
+        return readTree(treeFile, null);
+    }
+
+    /**
+     * Reads a tree written either by writeTree or by writeCompact. For
+     * compact trees, nodes that had a dictionary get the given one, or the
+     * dictionary referenced in the file if none is given.
+     */
+    @SuppressWarnings("unchecked")
+    public static Tree<TIntHashSet> readTree(String treeFile, Dictionary dictionary) {
+        Tree<TIntHashSet> hierarchy = null;
         if (treeFile == null) {
             System.out.println("No treeFile specified!");
             return null;
         }
+        try (DataInputStream input = new DataInputStream(new FileInputStream(treeFile))) {
+            if (input.readInt() == COMPACT_MAGIC) {
+                return readCompact(treeFile, dictionary);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(Tree.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
         try (final ObjectInputStream input = new ObjectInputStream(new FileInputStream(treeFile))) {
-            hierarchy = (Tree) input.readObject();
+            hierarchy = (Tree<TIntHashSet>) input.readObject();
         } catch (Exception ex) {
             Logger.getLogger(Tree.class.getName()).log(Level.SEVERE, null, ex);
         }
@@ -79,6 +113,150 @@ public class Tree<T> implements Serializable {
     public HashMap<String, Node<T>> getNodeMap() {
         return nodeMap;
     }
+
+    /**
+     * Writes a label hierarchy in the compact binary format: a header with
+     * the format version, the number of nodes and the path of the
+     * dictionary, followed by the nodes in pre-order with their parent id,
+     * label ids, meta-labels and, for nodes with their own features, the
+     * global ids of these features. The dictionary itself is not embedded.
+     */
+    public static void writeCompact(Tree<TIntHashSet> tree, String treeFile, String dictionaryFile) {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(treeFile)))) {
+            output.writeInt(COMPACT_MAGIC);
+            output.writeInt(COMPACT_VERSION);
+            output.writeInt(numberOfNodes);
+            output.writeUTF((dictionaryFile == null) ? "" : dictionaryFile);
+            output.writeInt(tree.getNodeMap().size());
+            writeCompact(tree.getRoot(), output);
+        } catch (IOException ex) {
+            Logger.getLogger(Tree.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private static void writeCompact(Node<TIntHashSet> n, DataOutputStream output) throws IOException {
+        output.writeInt(n.getId());
+        output.writeInt((n.getParent() == null) ? -1 : n.getParent().getId());
+        output.writeInt(n.getDepth());
+        output.writeDouble(n.getSilhouette());
+        output.writeBoolean(n.getDictionary() != null);
+        if (n.getDictionary() instanceof NodeDictionary) {
+            int[] features = ((NodeDictionary) n.getDictionary()).getFeatures();
+            output.writeInt(features.length);
+            for (int feature : features) {
+                output.writeInt(feature);
+            }
+        } else {
+            output.writeInt(-1);
+        }
+        int[] labelIds = n.getData().toArray();
+        output.writeInt(labelIds.length);
+        for (int labelId : labelIds) {
+            output.writeInt(labelId);
+        }
+        Labels metaLabels = n.getMetaLabels();
+        if (metaLabels == null) {
+            output.writeInt(-1);
+        } else {
+            output.writeInt(metaLabels.getSize());
+            for (int i = 1; i <= metaLabels.getSize(); i++) {
+                String metaLabel = metaLabels.getLabel(i);
+                output.writeUTF(metaLabel);
+                output.writeInt(metaLabels.getPositiveInstances().get(metaLabel));
+            }
+        }
+        if (!n.isLeaf()) {
+            for (Node<TIntHashSet> child : n.getChildren()) {
+                writeCompact(child, output);
+            }
+        }
+    }
+
+    public static Tree<TIntHashSet> readCompact(String treeFile, Dictionary dictionary) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(treeFile)))) {
+            if (input.readInt() != COMPACT_MAGIC) {
+                System.out.println(treeFile + " is not a compact tree file.");
+                return null;
+            }
+            int version = input.readInt();
+            if (version < 1 || version > COMPACT_VERSION) {
+                System.out.println("Unsupported compact tree version " + version);
+                return null;
+            }
+            int nodes = input.readInt();
+            String dictionaryFile = input.readUTF();
+            int size = input.readInt();
+            Tree<TIntHashSet> tree = null;
+            HashMap<Integer, ArrayList<Node<TIntHashSet>>> children = new HashMap<>();
+            HashMap<Integer, Node<TIntHashSet>> byId = new HashMap<>();
+            ArrayList<Integer> order = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                int id = input.readInt();
+                int parentId = input.readInt();
+                int depth = input.readInt();
+                double silhouette = input.readDouble();
+                boolean hasDictionary = input.readBoolean();
+                int[] features = null;
+                if (version >= 2) {
+                    int numFeatures = input.readInt();
+                    if (numFeatures >= 0) {
+                        features = new int[numFeatures];
+                        for (int f = 0; f < numFeatures; f++) {
+                            features[f] = input.readInt();
+                        }
+                    }
+                }
+                TIntHashSet data = new TIntHashSet();
+                int numLabels = input.readInt();
+                for (int l = 0; l < numLabels; l++) {
+                    data.add(input.readInt());
+                }
+                Labels metaLabels = null;
+                int numMetaLabels = input.readInt();
+                if (numMetaLabels >= 0) {
+                    LinkedHashSet<String> names = new LinkedHashSet<>();
+                    TObjectIntHashMap<String> positives = new TObjectIntHashMap<>();
+                    for (int l = 0; l < numMetaLabels; l++) {
+                        String metaLabel = input.readUTF();
+                        names.add(metaLabel);
+                        positives.put(metaLabel, input.readInt());
+                    }
+                    metaLabels = Labels.quiet(names);
+                    metaLabels.getPositiveInstances().putAll(positives);
+                }
+                Node<TIntHashSet> n;
+                if (parentId == -1) {
+                    tree = new Tree<>(data);
+                    n = tree.getRoot();
+                } else {
+                    n = new Node<>(data, byId.get(parentId), null, id, null);
+                    children.get(parentId).add(n);
+                }
+                n.setDepth(depth);
+                n.setSilhouette(silhouette);
+                n.setMetaLabels(metaLabels);
+                if (hasDictionary) {
+                    if (dictionary == null && !dictionaryFile.isEmpty()) {
+                        dictionary = Dictionary.readDictionary(dictionaryFile);
+                    }
+                    n.setDictionary((features == null) ? dictionary : new NodeDictionary(dictionary, features));
+                }
+                byId.put(id, n);
+                children.put(id, new ArrayList<Node<TIntHashSet>>());
+                order.add(id);
+            }
+            for (int id : order) {
+                if (!children.get(id).isEmpty()) {
+                    byId.get(id).setChildren(children.get(id), tree);
+                }
+            }
+            setNumberOfNodes(nodes);
+            return tree;
+        } catch (IOException ex) {
+            Logger.getLogger(Tree.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
     
     
 }
\ No newline at end of file
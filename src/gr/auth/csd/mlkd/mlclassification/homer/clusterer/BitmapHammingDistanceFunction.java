@@ -0,0 +1,33 @@
+package gr.auth.csd.mlkd.mlclassification.homer.clusterer;
+
+import de.lmu.ifi.dbs.elki.data.FeatureVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.set.HammingDistanceFunction;
+import gr.auth.csd.mlkd.utils.CompressedBitmap;
+
+/**
+ * Hamming distance that counts the intersection of two BitmapVectors on
+ * their bitmaps and falls back to ELKI's implementation otherwise.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class BitmapHammingDistanceFunction extends HammingDistanceFunction {
+
+    public static final BitmapHammingDistanceFunction STATIC = new BitmapHammingDistanceFunction();
+
+    @Override
+    public double distance(FeatureVector<?> o1, FeatureVector<?> o2) {
+        if (o1 instanceof BitmapVector && o2 instanceof BitmapVector) {
+            return CompressedBitmap.hammingDistance(((BitmapVector) o1).getBitmap(), ((BitmapVector) o2).getBitmap());
+        }
+        return super.distance(o1, o2);
+    }
+
+    @Override
+    public double distance(NumberVector o1, NumberVector o2) {
+        if (o1 instanceof BitmapVector && o2 instanceof BitmapVector) {
+            return CompressedBitmap.hammingDistance(((BitmapVector) o1).getBitmap(), ((BitmapVector) o2).getBitmap());
+        }
+        return super.distance(o1, o2);
+    }
+}
@@ -0,0 +1,36 @@
+package gr.auth.csd.mlkd.mlclassification.homer.clusterer;
+
+import de.lmu.ifi.dbs.elki.data.FeatureVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.set.JaccardSimilarityDistanceFunction;
+import gr.auth.csd.mlkd.utils.CompressedBitmap;
+
+/**
+ * Jaccard distance that counts the intersection of two BitmapVectors on
+ * their bitmaps and falls back to ELKI's implementation otherwise.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class BitmapJaccardDistanceFunction<O extends FeatureVector<?>> extends JaccardSimilarityDistanceFunction<O> {
+
+    @Override
+    public double distance(O o1, O o2) {
+        if (o1 instanceof BitmapVector && o2 instanceof BitmapVector) {
+            return CompressedBitmap.jaccardDistance(((BitmapVector) o1).getBitmap(), ((BitmapVector) o2).getBitmap());
+        }
+        return super.distance(o1, o2);
+    }
+
+    @Override
+    public double distance(NumberVector o1, NumberVector o2) {
+        if (o1 instanceof BitmapVector && o2 instanceof BitmapVector) {
+            return CompressedBitmap.jaccardDistance(((BitmapVector) o1).getBitmap(), ((BitmapVector) o2).getBitmap());
+        }
+        return super.distance(o1, o2);
+    }
+
+    @Override
+    public double similarity(O o1, O o2) {
+        return 1 - distance(o1, o2);
+    }
+}
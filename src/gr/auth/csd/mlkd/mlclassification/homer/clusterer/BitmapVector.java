@@ -0,0 +1,172 @@
+package gr.auth.csd.mlkd.mlclassification.homer.clusterer;
+
+import de.lmu.ifi.dbs.elki.data.AbstractNumberVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.SparseDoubleVector;
+import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
+import de.lmu.ifi.dbs.elki.math.linearalgebra.Vector;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.ArrayAdapter;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.NumberArrayAdapter;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteBufferSerializer;
+import gnu.trove.map.TIntDoubleMap;
+import gr.auth.csd.mlkd.utils.CompressedBitmap;
+
+/**
+ * A binary sparse vector backed by a CompressedBitmap, so that label vectors
+ * share the storage of the ClusteringDataset. Iterators are the dimensions
+ * themselves. Vectors created by the factory from arbitrary values (e.g.
+ * k-means centers) are plain SparseDoubleVectors.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+@SuppressWarnings("deprecation")
+public class BitmapVector extends AbstractNumberVector implements SparseNumberVector {
+
+    public static final Factory FACTORY = new Factory();
+    private final CompressedBitmap bits;
+    private int dimensionality;
+
+    public BitmapVector(CompressedBitmap bits, int dimensionality) {
+        this.bits = bits;
+        this.dimensionality = dimensionality;
+    }
+
+    public CompressedBitmap getBitmap() {
+        return bits;
+    }
+
+    @Override
+    public int getDimensionality() {
+        return dimensionality;
+    }
+
+    @Override
+    public void setDimensionality(int dimensionality) {
+        this.dimensionality = dimensionality;
+    }
+
+    @Override
+    public int iter() {
+        return bits.nextValue(0);
+    }
+
+    @Override
+    public int iterDim(int iter) {
+        return iter;
+    }
+
+    @Override
+    public int iterAdvance(int iter) {
+        return (iter == Integer.MAX_VALUE) ? -1 : bits.nextValue(iter + 1);
+    }
+
+    @Override
+    public boolean iterValid(int iter) {
+        return iter >= 0;
+    }
+
+    @Override
+    public double iterDoubleValue(int iter) {
+        return 1;
+    }
+
+    @Override
+    public float iterFloatValue(int iter) {
+        return 1;
+    }
+
+    @Override
+    public int iterIntValue(int iter) {
+        return 1;
+    }
+
+    @Override
+    public short iterShortValue(int iter) {
+        return 1;
+    }
+
+    @Override
+    public long iterLongValue(int iter) {
+        return 1;
+    }
+
+    @Override
+    public byte iterByteValue(int iter) {
+        return 1;
+    }
+
+    @Override
+    public double doubleValue(int dimension) {
+        return bits.contains(dimension) ? 1 : 0;
+    }
+
+    @Override
+    public long longValue(int dimension) {
+        return bits.contains(dimension) ? 1 : 0;
+    }
+
+    @Override
+    public Double getValue(int dimension) {
+        return doubleValue(dimension);
+    }
+
+    @Override
+    public Vector getColumnVector() {
+        double[] values = new double[dimensionality];
+        for (int d = bits.nextValue(0); d >= 0 && d < dimensionality; d = iterAdvance(d)) {
+            values[d] = 1;
+        }
+        return new Vector(values);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int d = iter(); iterValid(d); d = iterAdvance(d)) {
+            if (sb.length() > 0) {
+                sb.append(ATTRIBUTE_SEPARATOR);
+            }
+            sb.append(d).append(ATTRIBUTE_SEPARATOR).append(1);
+        }
+        return sb.toString();
+    }
+
+    public static class Factory implements SparseNumberVector.Factory<SparseNumberVector> {
+
+        @Override
+        public SparseNumberVector newNumberVector(double[] values) {
+            return SparseDoubleVector.FACTORY.newNumberVector(values);
+        }
+
+        @Override
+        public SparseNumberVector newNumberVector(NumberVector values) {
+            return (values instanceof BitmapVector) ? (BitmapVector) values
+                    : SparseDoubleVector.FACTORY.newNumberVector(values);
+        }
+
+        @Override
+        public <A> SparseNumberVector newNumberVector(A array, NumberArrayAdapter<?, ? super A> adapter) {
+            return SparseDoubleVector.FACTORY.newNumberVector(array, adapter);
+        }
+
+        @Override
+        public SparseNumberVector newNumberVector(TIntDoubleMap values, int maxdim) {
+            return SparseDoubleVector.FACTORY.newNumberVector(values, maxdim);
+        }
+
+        @Override
+        public <A> SparseNumberVector newFeatureVector(A array, ArrayAdapter<? extends Number, A> adapter) {
+            return SparseDoubleVector.FACTORY.newFeatureVector(array, adapter);
+        }
+
+        @Override
+        public ByteBufferSerializer<SparseNumberVector> getDefaultSerializer() {
+            return null;
+        }
+
+        @Override
+        public Class<? super SparseNumberVector> getRestrictionClass() {
+            return SparseNumberVector.class;
+        }
+    }
+}
@@ -9,12 +9,7 @@ import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.index.preprocessed.fastoptics.RandomProjectedNeighborssAndDensities;
 import de.lmu.ifi.dbs.elki.math.random.RandomFactory;
 import de.lmu.ifi.dbs.elki.result.Result;
-import gnu.trove.set.hash.TIntHashSet;
-import gr.auth.csd.mlkd.mlclassification.homer.ClusteringDataset;
-import gr.auth.csd.mlkd.mlclassification.homer.Node;
-import gr.auth.csd.mlkd.preprocessing.Corpus;
 import gr.auth.csd.mlkd.preprocessing.Labels;
-import java.io.FileNotFoundException;
 
 public class Dbscan<S extends SparseNumberVector> extends RecursiveLabelClustering<S> {
 
@@ -28,9 +23,14 @@ public class Dbscan<S extends SparseNumberVector> extends RecursiveLabelClusteri
     }
 
     @Override
-    public void recursion(boolean firstCall, Node<TIntHashSet> parent, String libSVMFile, ClusteringDataset cd, Corpus corpus) throws FileNotFoundException {
+    protected void beforeClustering() {
         epsilon = 2*epsilon;
-        super.recursion(firstCall, parent, libSVMFile, cd, corpus);
+    }
+
+    /* epsilon grows with every clustered node, so nodes are clustered in order */
+    @Override
+    protected boolean sequential() {
+        return true;
     }
 
     
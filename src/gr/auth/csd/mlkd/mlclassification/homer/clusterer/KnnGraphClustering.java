@@ -0,0 +1,200 @@
+package gr.auth.csd.mlkd.mlclassification.homer.clusterer;
+
+import de.lmu.ifi.dbs.elki.data.Cluster;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
+import de.lmu.ifi.dbs.elki.data.model.ClusterModel;
+import de.lmu.ifi.dbs.elki.data.model.Model;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.result.Result;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gr.auth.csd.mlkd.preprocessing.Labels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Agglomerative clustering of the labels on the sparse kNN graph produced by
+ * MinHashLSH, instead of on the full distance matrix. Edges are merged by
+ * decreasing Jaccard similarity (single linkage) as long as the merged
+ * cluster fits in ceil(n/k) labels, and the resulting components are then
+ * packed, largest first, into the k clusters they are most connected to.
+ * Time and memory stay near-linear in the number of labels.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class KnnGraphClustering extends RecursiveLabelClustering<SparseNumberVector> {
+
+    private final MinHashLSH lsh;
+    private final int knn;
+
+    public KnnGraphClustering(Labels labels, int maxClusterSize, int numOfClusters, String df,
+            int bands, int rows, int knn) {
+        super(labels, maxClusterSize, numOfClusters, df);
+        this.lsh = new MinHashLSH(bands, rows, 1);
+        this.knn = knn;
+    }
+
+    /* MinHash signatures are this method's own sketch of the document sets */
+    @Override
+    public void setSketch(int d) {
+        if (d > 0) {
+            System.out.println("knngraph clusters the document sets, -sketch is ignored");
+        }
+    }
+
+    /* the exact silhouette is quadratic in the labels, so it is sampled here */
+    @Override
+    public void setSilhouette(String mode, int sample, int every) {
+        if ("exact".equals(mode)) {
+            System.out.println("knngraph computes the sampled silhouette, use -silhouette none to skip it");
+            mode = "sampled";
+        }
+        super.setSilhouette(mode, sample, every);
+    }
+
+    @Override
+    protected Result run(Database db) {
+        Relation<SparseNumberVector> rel = db.getRelation(TypeUtil.SPARSE_VECTOR_VARIABLE_LENGTH);
+        DBIDRange ids = (DBIDRange) rel.getDBIDs();
+        final int n = ids.size();
+        final int k = Math.max(1, Math.min(numOfClusters, n));
+        int[][] supports = new int[n][];
+        for (DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+            SparseNumberVector v = rel.get(it);
+            TIntArrayList docs = new TIntArrayList();
+            for (int iter = v.iter(); v.iterValid(iter); iter = v.iterAdvance(iter)) {
+                docs.add(v.iterDim(iter));
+            }
+            docs.sort();
+            supports[ids.getOffset(it)] = docs.toArray();
+        }
+        MinHashLSH.KnnGraph graph = lsh.knnGraph(supports, knn);
+        int[] assignment = cluster(graph, n, k);
+
+        List<ArrayModifiableDBIDs> clusters = new ArrayList<>();
+        for (int j = 0; j < k; j++) {
+            clusters.add(DBIDUtil.newArray());
+        }
+        for (DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+            clusters.get(assignment[ids.getOffset(it)]).add(it);
+        }
+        Clustering<Model> result = new Clustering<>("kNN Graph Clustering", "knn-graph-clustering");
+        for (ArrayModifiableDBIDs clusterIds : clusters) {
+            if (!clusterIds.isEmpty()) {
+                result.addToplevelCluster(new Cluster<Model>(clusterIds, ClusterModel.CLUSTER));
+            }
+        }
+        return result;
+    }
+
+    private int[] cluster(MinHashLSH.KnnGraph graph, int n, int k) {
+        int capacity = (n + k - 1) / k;
+        // edges i < j by decreasing similarity
+        TIntArrayList from = new TIntArrayList(), to = new TIntArrayList();
+        TDoubleArrayList weight = new TDoubleArrayList();
+        for (int i = 0; i < n; i++) {
+            for (int c = 0; c < graph.neighbors[i].length; c++) {
+                if (graph.neighbors[i][c] > i) {
+                    from.add(i);
+                    to.add(graph.neighbors[i][c]);
+                    weight.add(graph.similarities[i][c]);
+                }
+            }
+        }
+        Integer[] order = new Integer[from.size()];
+        for (int e = 0; e < order.length; e++) {
+            order[e] = e;
+        }
+        Arrays.sort(order, (x, y) -> Double.compare(weight.getQuick(y), weight.getQuick(x)));
+
+        int[] parent = new int[n];
+        int[] size = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+            size[i] = 1;
+        }
+        for (int e : order) {
+            int x = find(parent, from.getQuick(e)), y = find(parent, to.getQuick(e));
+            if (x != y && size[x] + size[y] <= capacity) {
+                if (size[x] < size[y]) {
+                    int t = x;
+                    x = y;
+                    y = t;
+                }
+                parent[y] = x;
+                size[x] += size[y];
+            }
+        }
+
+        TIntObjectHashMap<TIntArrayList> components = new TIntObjectHashMap<>();
+        for (int i = 0; i < n; i++) {
+            int root = find(parent, i);
+            TIntArrayList members = components.get(root);
+            if (members == null) {
+                members = new TIntArrayList();
+                components.put(root, members);
+            }
+            members.add(i);
+        }
+        List<TIntArrayList> sorted = new ArrayList<>(components.valueCollection());
+        sorted.sort((x, y) -> (x.size() != y.size()) ? y.size() - x.size() : x.get(0) - y.get(0));
+
+        int[] assignment = new int[n];
+        Arrays.fill(assignment, -1);
+        int[] binSize = new int[k];
+        for (TIntArrayList component : sorted) {
+            double[] connection = new double[k];
+            for (int m = 0; m < component.size(); m++) {
+                int i = component.getQuick(m);
+                for (int c = 0; c < graph.neighbors[i].length; c++) {
+                    int bin = assignment[graph.neighbors[i][c]];
+                    if (bin >= 0) {
+                        connection[bin] += graph.similarities[i][c];
+                    }
+                }
+            }
+            int best = -1;
+            for (int j = 0; j < k; j++) {
+                if (binSize[j] + component.size() > capacity) {
+                    continue;
+                }
+                if (best < 0 || connection[j] > connection[best]
+                        || (connection[j] == connection[best] && binSize[j] < binSize[best])) {
+                    best = j;
+                }
+            }
+            if (best < 0) {
+                best = 0;
+                for (int j = 1; j < k; j++) {
+                    if (binSize[j] < binSize[best]) {
+                        best = j;
+                    }
+                }
+            }
+            for (int m = 0; m < component.size(); m++) {
+                assignment[component.getQuick(m)] = best;
+            }
+            binSize[best] += component.size();
+        }
+        System.out.println("kNN graph clustering: " + n + " labels, " + graph.candidatePairs
+                + " candidate pairs, " + from.size() + " edges, " + components.size() + " components");
+        return assignment;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
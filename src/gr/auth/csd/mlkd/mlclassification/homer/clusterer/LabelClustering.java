@@ -2,6 +2,7 @@ package gr.auth.csd.mlkd.mlclassification.homer.clusterer;
 
 import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.FeatureVector;
 import de.lmu.ifi.dbs.elki.data.SparseDoubleVector;
 import de.lmu.ifi.dbs.elki.data.model.Model;
 import de.lmu.ifi.dbs.elki.database.Database;
@@ -34,6 +35,7 @@ import gr.auth.csd.mlkd.mlclassification.homer.myEvaluateSilhouette;
 import gr.auth.csd.mlkd.preprocessing.Labels;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,10 +43,10 @@ public abstract class LabelClustering {
 
     public final Tree<TIntHashSet> hierarchy;
     public final Labels labels;
-    protected static int id = 0;
+    protected static final AtomicInteger id = new AtomicInteger();
     
-    JaccardSimilarityDistanceFunction distJacc = new JaccardSimilarityDistanceFunction();
-    HammingDistanceFunction distHamm =  HammingDistanceFunction.STATIC;
+    JaccardSimilarityDistanceFunction<FeatureVector<?>> distJacc = new BitmapJaccardDistanceFunction<>();
+    HammingDistanceFunction distHamm =  BitmapHammingDistanceFunction.STATIC;
     SquaredEuclideanDistanceFunction distSqEucl = SquaredEuclideanDistanceFunction.STATIC;
     SparseEuclideanDistanceFunction distSparsEucl = SparseEuclideanDistanceFunction.STATIC;
     CosineDistanceFunction distCos = CosineDistanceFunction.STATIC;
@@ -53,6 +55,9 @@ public abstract class LabelClustering {
     SparseManhattanDistanceFunction distSparsManh = SparseManhattanDistanceFunction.STATIC;
     
     NumberVectorDistanceFunction dist;
+    protected int threads = 0;
+    protected String silhouetteMode = "exact";
+    protected int silhouetteSample = 100;
     
     public LabelClustering(Labels labels, String distanceFunction) {
 
@@ -95,6 +100,11 @@ public abstract class LabelClustering {
         
     }
 
+    /* lets new nodes continue the numbering of an existing hierarchy */
+    public static void setId(int id) {
+        LabelClustering.id.set(id);
+    }
+
     protected abstract Result run(Database db);
     
     public MultipleObjectsBundle parse(String libSVMFile) {
@@ -148,6 +158,9 @@ public abstract class LabelClustering {
     public double silhouette(Database db, Clustering<?> run, Relation rel) {
                 DistanceQuery dq = db.getDistanceQuery(rel, dist);
         myEvaluateSilhouette es = new myEvaluateSilhouette(dist, NoiseHandling.IGNORE_NOISE, false);
+        es.setThreads(threads);
+        es.setCentroids("centroid".equals(silhouetteMode));
+        es.setSampleSize("sampled".equals(silhouetteMode) ? silhouetteSample : 0);
         return es.evaluateClustering(db, rel, dq, (Clustering) run);
     }
 }
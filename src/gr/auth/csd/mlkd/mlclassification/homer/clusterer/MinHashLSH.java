@@ -0,0 +1,171 @@
+package gr.auth.csd.mlkd.mlclassification.homer.clusterer;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TIntHashSet;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Approximate nearest neighbors of labels by the Jaccard similarity of their
+ * document sets. Every label gets a MinHash signature of bands * rows
+ * values, labels sharing all values of at least one band become candidate
+ * pairs, and each label keeps its knn most similar candidates (exact
+ * Jaccard). More rows per band prune more pairs, more bands recover more of
+ * the true neighbors.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class MinHashLSH {
+
+    private static final long PRIME = 2147483647L;
+
+    /** A sparse, symmetric kNN graph over the labels. */
+    public static class KnnGraph {
+
+        public final int[][] neighbors;
+        public final double[][] similarities;
+        public final long candidatePairs;
+
+        KnnGraph(int[][] neighbors, double[][] similarities, long candidatePairs) {
+            this.neighbors = neighbors;
+            this.similarities = similarities;
+            this.candidatePairs = candidatePairs;
+        }
+    }
+
+    private final int bands;
+    private final int rows;
+    private final long[] a;
+    private final long[] b;
+    private int maxBucket = 200;
+
+    public MinHashLSH(int bands, int rows, long seed) {
+        this.bands = bands;
+        this.rows = rows;
+        Random random = new Random(seed);
+        a = new long[bands * rows];
+        b = new long[bands * rows];
+        for (int h = 0; h < a.length; h++) {
+            a[h] = 1 + random.nextInt(Integer.MAX_VALUE - 1);
+            b[h] = random.nextInt(Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Labels of a bucket larger than this are only paired with the next
+     * maxBucket labels of the bucket, so that frequent documents do not
+     * bring back the quadratic number of pairs.
+     */
+    public void setMaxBucket(int maxBucket) {
+        this.maxBucket = maxBucket;
+    }
+
+    public int[][] signatures(int[][] supports) {
+        int[][] signatures = new int[supports.length][a.length];
+        for (int i = 0; i < supports.length; i++) {
+            int[] sig = signatures[i];
+            Arrays.fill(sig, Integer.MAX_VALUE);
+            for (int doc : supports[i]) {
+                for (int h = 0; h < sig.length; h++) {
+                    int v = (int) ((a[h] * doc + b[h]) % PRIME);
+                    if (v < sig[h]) {
+                        sig[h] = v;
+                    }
+                }
+            }
+        }
+        return signatures;
+    }
+
+    /**
+     * The kNN graph of the labels with the given (sorted) document sets. An
+     * edge is kept when either endpoint has the other among its knn.
+     */
+    public KnnGraph knnGraph(int[][] supports, int knn) {
+        int n = supports.length;
+        int[][] signatures = signatures(supports);
+        TIntHashSet[] candidates = new TIntHashSet[n];
+        for (int i = 0; i < n; i++) {
+            candidates[i] = new TIntHashSet();
+        }
+        for (int band = 0; band < bands; band++) {
+            TLongObjectHashMap<TIntArrayList> buckets = new TLongObjectHashMap<>();
+            for (int i = 0; i < n; i++) {
+                if (supports[i].length == 0) {
+                    continue;
+                }
+                long key = band;
+                for (int r = band * rows; r < (band + 1) * rows; r++) {
+                    key = key * 1000003L + signatures[i][r];
+                }
+                TIntArrayList bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new TIntArrayList(2);
+                    buckets.put(key, bucket);
+                }
+                bucket.add(i);
+            }
+            for (TIntArrayList bucket : buckets.valueCollection()) {
+                for (int x = 0; x < bucket.size(); x++) {
+                    int last = Math.min(bucket.size(), x + 1 + maxBucket);
+                    for (int y = x + 1; y < last; y++) {
+                        candidates[bucket.getQuick(x)].add(bucket.getQuick(y));
+                        candidates[bucket.getQuick(y)].add(bucket.getQuick(x));
+                    }
+                }
+            }
+        }
+
+        long pairs = 0;
+        TIntHashSet[] edges = new TIntHashSet[n];
+        for (int i = 0; i < n; i++) {
+            edges[i] = new TIntHashSet();
+        }
+        for (int i = 0; i < n; i++) {
+            int[] cand = candidates[i].toArray();
+            pairs += cand.length;
+            candidates[i] = null;
+            double[] sim = new double[cand.length];
+            Integer[] order = new Integer[cand.length];
+            for (int c = 0; c < cand.length; c++) {
+                sim[c] = jaccard(supports[i], supports[cand[c]]);
+                order[c] = c;
+            }
+            Arrays.sort(order, (x, y) -> Double.compare(sim[y], sim[x]));
+            for (int c = 0; c < Math.min(knn, cand.length) && sim[order[c]] > 0; c++) {
+                edges[i].add(cand[order[c]]);
+                edges[cand[order[c]]].add(i);
+            }
+        }
+        int[][] neighbors = new int[n][];
+        double[][] similarities = new double[n][];
+        for (int i = 0; i < n; i++) {
+            neighbors[i] = edges[i].toArray();
+            Arrays.sort(neighbors[i]);
+            similarities[i] = new double[neighbors[i].length];
+            for (int c = 0; c < neighbors[i].length; c++) {
+                similarities[i][c] = jaccard(supports[i], supports[neighbors[i][c]]);
+            }
+        }
+        return new KnnGraph(neighbors, similarities, pairs / 2);
+    }
+
+    /* Jaccard similarity of two sorted sets */
+    static double jaccard(int[] x, int[] y) {
+        int i = 0, j = 0, intersection = 0;
+        while (i < x.length && j < y.length) {
+            if (x[i] < y[j]) {
+                i++;
+            } else if (x[i] > y[j]) {
+                j++;
+            } else {
+                intersection++;
+                i++;
+                j++;
+            }
+        }
+        int union = x.length + y.length - intersection;
+        return (union == 0) ? 0 : (double) intersection / union;
+    }
+}
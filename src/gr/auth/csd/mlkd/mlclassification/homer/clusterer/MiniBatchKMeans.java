@@ -0,0 +1,223 @@
+package gr.auth.csd.mlkd.mlclassification.homer.clusterer;
+
+import de.lmu.ifi.dbs.elki.data.Cluster;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
+import de.lmu.ifi.dbs.elki.data.model.ClusterModel;
+import de.lmu.ifi.dbs.elki.data.model.Model;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.result.Result;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gr.auth.csd.mlkd.preprocessing.Labels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Mini-batch k-means (Sculley, 2010) over the label vectors. Every step
+ * assigns a random batch of labels to their nearest centers and moves each
+ * center towards its labels with a learning rate of 1/(labels it has seen
+ * so far). As in SphericalKMeans, labels are unit vectors and are assigned
+ * by cosine, since with plain Euclidean distances the mean of many sparse
+ * labels is closer to every label than any other center; -distanceFunction
+ * is ignored. It stops after maxIterations passes over the labels, or
+ * earlier once the centers barely move, and then assigns every label to its
+ * nearest center once.
+ *
+ * Centers are kept as scale * w over the documents of the node, so that
+ * updating a center with a sparse label costs its non-zeros, not the number
+ * of documents.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class MiniBatchKMeans extends RecursiveLabelClustering<SparseNumberVector> {
+
+    /* stop when the smoothed movement of the centers falls below this fraction of their norm */
+    private static final double TOLERANCE = 1e-4;
+    private static final double MIN_SCALE = 1e-6;
+
+    private final int batchSize;
+    private final int maxIterations;
+
+    public MiniBatchKMeans(Labels labels, int maxClusterSize, int numOfClusters, String df,
+            int batchSize, int maxIterations) {
+        super(labels, maxClusterSize, numOfClusters, df);
+        // also the distance of the silhouette and of the -sketch check
+        if (df != null && !"Cos".equals(df)) {
+            System.out.println("minibatch clusters by cosine, -distanceFunction " + df + " is ignored");
+        }
+        dist = distCos;
+        this.batchSize = batchSize;
+        this.maxIterations = maxIterations;
+    }
+
+    @Override
+    protected Result run(Database db) {
+        Relation<SparseNumberVector> rel = db.getRelation(TypeUtil.SPARSE_VECTOR_VARIABLE_LENGTH);
+        DBIDRange ids = (DBIDRange) rel.getDBIDs();
+        final int n = ids.size();
+        final int k = Math.max(1, Math.min(numOfClusters, n));
+
+        int[][] supports = new int[n][];
+        double[][] values = new double[n][];
+        double[] squares = new double[n];
+        TIntIntHashMap local = new TIntIntHashMap();
+        for (DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+            SparseNumberVector v = rel.get(it);
+            TIntArrayList docs = new TIntArrayList();
+            TDoubleArrayList x = new TDoubleArrayList();
+            int offset = ids.getOffset(it);
+            for (int iter = v.iter(); v.iterValid(iter); iter = v.iterAdvance(iter)) {
+                int doc = v.iterDim(iter);
+                if (!local.containsKey(doc)) {
+                    local.put(doc, local.size());
+                }
+                docs.add(local.get(doc));
+                x.add(v.iterDoubleValue(iter));
+                squares[offset] += v.iterDoubleValue(iter) * v.iterDoubleValue(iter);
+            }
+            for (int d = 0; squares[offset] > 0 && d < x.size(); d++) {
+                x.setQuick(d, x.getQuick(d) / Math.sqrt(squares[offset]));
+            }
+            squares[offset] = (squares[offset] > 0) ? 1 : 0;
+            supports[offset] = docs.toArray();
+            values[offset] = x.toArray();
+        }
+
+        long seed = n;
+        for (int[] support : supports) {
+            seed = seed * 31 + support.length;
+        }
+        Random random = new Random(seed);
+        double[][] w = new double[k][local.size()];
+        double[] scale = new double[k];
+        double[] norms = new double[k];
+        long[] counts = new long[k];
+        // k-means++ seeding, on unit vectors the distance is 2 - 2 cos
+        double[] closest = new double[n];
+        Arrays.fill(closest, Double.POSITIVE_INFINITY);
+        int s = random.nextInt(n);
+        for (int j = 0; j < k; j++) {
+            for (int d = 0; d < supports[s].length; d++) {
+                w[j][supports[s][d]] = values[s][d];
+            }
+            scale[j] = 1;
+            norms[j] = squares[s];
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                double distance = Math.max(0, squares[i] - 2 * dot(supports[i], values[i], w[j]) + norms[j]);
+                closest[i] = Math.min(closest[i], distance);
+                total += closest[i];
+            }
+            double r = random.nextDouble() * total;
+            for (s = 0; s < n - 1; s++) {
+                r -= closest[s];
+                if (r <= 0) {
+                    break;
+                }
+            }
+        }
+
+        int batch = Math.min(batchSize, n);
+        long steps = (long) maxIterations * ((n + batch - 1) / batch);
+        int[] batchLabels = new int[batch];
+        int[] batchCenters = new int[batch];
+        double smoothed = -1;
+        long step = 0;
+        while (step < steps) {
+            step++;
+            for (int b = 0; b < batch; b++) {
+                batchLabels[b] = random.nextInt(n);
+                batchCenters[b] = nearest(supports[batchLabels[b]], values[batchLabels[b]], w, scale, norms);
+            }
+            double movement = 0;
+            for (int b = 0; b < batch; b++) {
+                int i = batchLabels[b], j = batchCenters[b];
+                counts[j]++;
+                double eta = 1.0 / counts[j];
+                double dot = scale[j] * dot(supports[i], values[i], w[j]);
+                movement += eta * eta * Math.max(0, squares[i] - 2 * dot + norms[j]);
+                norms[j] = (1 - eta) * (1 - eta) * norms[j] + 2 * eta * (1 - eta) * dot + eta * eta * squares[i];
+                scale[j] *= 1 - eta;
+                if (scale[j] < MIN_SCALE) {
+                    // the first label of a center (eta = 1) or a long run of updates
+                    for (int d = 0; d < w[j].length; d++) {
+                        w[j][d] *= scale[j];
+                    }
+                    scale[j] = 1;
+                }
+                for (int d = 0; d < supports[i].length; d++) {
+                    w[j][supports[i][d]] += eta * values[i][d] / scale[j];
+                }
+            }
+            double total = 0;
+            for (double norm : norms) {
+                total += norm;
+            }
+            movement /= batch;
+            smoothed = (smoothed < 0) ? movement : 0.9 * smoothed + 0.1 * movement;
+            if (step > 10 && smoothed < TOLERANCE * total / k) {
+                break;
+            }
+        }
+
+        int[] assignment = new int[n];
+        double similarity = 0;
+        for (int i = 0; i < n; i++) {
+            assignment[i] = nearest(supports[i], values[i], w, scale, norms);
+            similarity += cosine(supports[i], values[i], w[assignment[i]], scale[assignment[i]], norms[assignment[i]]);
+        }
+        System.out.println("Mini-batch k-means: " + n + " labels, " + step + " batches of " + batch
+                + ", mean similarity " + (float) (similarity / n));
+
+        List<ArrayModifiableDBIDs> clusters = new ArrayList<>();
+        for (int j = 0; j < k; j++) {
+            clusters.add(DBIDUtil.newArray());
+        }
+        for (DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+            clusters.get(assignment[ids.getOffset(it)]).add(it);
+        }
+        Clustering<Model> result = new Clustering<>("Mini-batch k-means Clustering", "minibatch-kmeans-clustering");
+        for (ArrayModifiableDBIDs clusterIds : clusters) {
+            if (!clusterIds.isEmpty()) {
+                result.addToplevelCluster(new Cluster<Model>(clusterIds, ClusterModel.CLUSTER));
+            }
+        }
+        return result;
+    }
+
+    /* the center of the highest cosine similarity */
+    private static int nearest(int[] support, double[] values, double[][] w, double[] scale, double[] norms) {
+        int best = 0;
+        double bestSimilarity = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < w.length; j++) {
+            double similarity = cosine(support, values, w[j], scale[j], norms[j]);
+            if (similarity > bestSimilarity) {
+                bestSimilarity = similarity;
+                best = j;
+            }
+        }
+        return best;
+    }
+
+    private static double cosine(int[] support, double[] values, double[] w, double scale, double norm) {
+        return (norm > 0) ? scale * dot(support, values, w) / Math.sqrt(norm) : 0;
+    }
+
+    private static double dot(int[] support, double[] values, double[] w) {
+        double dot = 0;
+        for (int d = 0; d < support.length; d++) {
+            dot += values[d] * w[support[d]];
+        }
+        return dot;
+    }
+}
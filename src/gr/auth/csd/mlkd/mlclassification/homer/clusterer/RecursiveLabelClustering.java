@@ -2,33 +2,40 @@ package gr.auth.csd.mlkd.mlclassification.homer.clusterer;
 
 import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
-import de.lmu.ifi.dbs.elki.data.LabelList;
 import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
+import de.lmu.ifi.dbs.elki.data.model.ClusterModel;
 import de.lmu.ifi.dbs.elki.data.model.Model;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import gnu.trove.iterator.TIntIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.hash.THashSet;
 import gnu.trove.set.hash.TIntHashSet;
 import gr.auth.csd.mlkd.mlclassification.homer.ClusteringDataset;
 import gr.auth.csd.mlkd.mlclassification.homer.Node;
 import gr.auth.csd.mlkd.preprocessing.Corpus;
 import gr.auth.csd.mlkd.preprocessing.Labels;
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public abstract class RecursiveLabelClustering<S extends SparseNumberVector> extends LabelClustering {
 
     final int maxClusterSize;
     protected int numOfClusters;
-    private final boolean eval = true;
-    private int depth=0;
+    private int silhouetteEvery = 1;
+    private int sketch = 0;
+    private double costSlack = -1;
 
     public RecursiveLabelClustering(Labels labels, int max, int num, String distFunction) {
         super(labels, distFunction);
@@ -36,76 +43,332 @@ public abstract class RecursiveLabelClustering<S extends SparseNumberVector> ext
         this.numOfClusters = num;
     }
 
-    public void recursion(boolean firstCall, Node<TIntHashSet> parent, String libSVMFile, 
-            ClusteringDataset cd, Corpus corpus) throws FileNotFoundException {
-        
-        MultipleObjectsBundle objs = parse(libSVMFile + ".libSVM");
-        StaticArrayDatabase db = createDb(objs);
-        Relation<S> rel = db.getRelation(TypeUtil.SPARSE_VECTOR_VARIABLE_LENGTH);
-        DBIDRange ids = (DBIDRange) rel.getDBIDs();
-        if (ids.size() < maxClusterSize) {
-            return;
+    /**
+     * Rebalances the clusters of every node by estimated training cost, i.e.
+     * the number of documents in the union of the supports of their labels.
+     * No cluster should cost more than (1 + slack) times the node's documents
+     * divided by the number of clusters. A negative slack disables it.
+     */
+    public void setCostBalance(double slack) {
+        this.costSlack = slack;
+    }
+
+    /**
+     * Silhouette of the clusters of every node: none, exact, sampled (at most
+     * sample labels per cluster) or centroid (simplified silhouette). It is
+     * computed at every n-th level of the hierarchy (n = every), starting at the
+     * root.
+     */
+    public void setSilhouette(String mode, int sample, int every) {
+        this.silhouetteMode = mode;
+        this.silhouetteSample = sample;
+        this.silhouetteEvery = Math.max(1, every);
+    }
+
+    /**
+     * Clusters count sketches of d dimensions instead of the label vectors
+     * over all training documents (see ClusteringDataset.toSketchBundle), 0
+     * disables it. Sketches only preserve inner products, so any other
+     * distance is rejected.
+     */
+    public void setSketch(int d) {
+        if (d > 0 && dist != distSqEucl && dist != distCos) {
+            throw new IllegalArgumentException("-sketch needs the sqEucl or Cos distance");
         }
-        Clustering<Model> c = (Clustering<Model>) run(db);
-        depth++;
-        if(eval) {
-            parent.setDepth(depth);
-            parent.setSilhouette(this.silhouette(db, c, rel));
+        this.sketch = d;
+    }
+
+    /**
+     * Clustering threads, 0 uses all cores. Oversized sibling clusters are
+     * clustered in parallel, one fork-join task each.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Clusters the labels with the given (0-based) indices of cd under
+     * parent and recurses into every cluster larger than maxClusterSize. The
+     * label vectors are built in memory from cd at every level. The new
+     * nodes get their ids when the subtree is attached to parent, in the
+     * same depth-first order as a sequential build, so the numbering does
+     * not depend on the order in which the tasks finish. Depths count from
+     * the root, so a leaf split by an update keeps its place in the tree.
+     */
+    public void recursion(boolean firstCall, Node<TIntHashSet> parent, List<Integer> labs,
+            ClusteringDataset cd, Corpus corpus) {
+        int depth = 1;
+        for (Node<TIntHashSet> n = parent.getParent(); n != null; n = n.getParent()) {
+            depth++;
         }
-        //printResults(c, ids);
-        if (c.getAllClusters().size() == 1) { //if 
-            delete(libSVMFile);
-            return;
+        ClusterTask task = new ClusterTask(parent, labs, cd, depth);
+        if (sequential()) {
+            task.compute();
+        } else {
+            ForkJoinPool pool = (threads > 0) ? new ForkJoinPool(threads) : new ForkJoinPool();
+            pool.invoke(task);
+            pool.shutdown();
+        }
+        attach(task);
+    }
+
+    /* called before the labels of every node are clustered */
+    protected void beforeClustering() {
+    }
+
+    /* whether nodes have to be clustered one at a time, depth first */
+    protected boolean sequential() {
+        return threads == 1;
+    }
+
+    private class ClusterTask extends RecursiveAction {
+
+        static final long serialVersionUID = 4693797667548626109L;
+        private final Node<TIntHashSet> parent;
+        private final List<Integer> labs;
+        private final ClusteringDataset cd;
+        private final int depth;
+        private ArrayList<Node<TIntHashSet>> children;
+        private List<ClusterTask> subtasks;
+
+        ClusterTask(Node<TIntHashSet> parent, List<Integer> labs, ClusteringDataset cd, int depth) {
+            this.parent = parent;
+            this.labs = labs;
+            this.cd = cd;
+            this.depth = depth;
         }
-        int clusterId = 0;
-        ArrayList<Node<TIntHashSet>> children = new ArrayList<>();
-        for (Cluster<Model> clu : c.getAllClusters()) {
-            clusterId++;
-            TIntHashSet clusterSet = new TIntHashSet();
-            for (DBIDIter it = clu.getIDs().iter(); it.valid(); it.advance()) {
-                final int offset = ids.getOffset(it);
 
-                clusterSet.add((Integer.parseInt(objs.getColumn(1).get(offset).toString())) + 1);
+        @Override
+        protected void compute() {
+            if (labs.size() < maxClusterSize) {
+                return;
+            }
+            beforeClustering();
+            MultipleObjectsBundle objs = (sketch > 0) ? cd.toSketchBundle(labs, sketch) : cd.toBundle(labs);
+            StaticArrayDatabase db = createDb(objs);
+            Relation<S> rel = db.getRelation(TypeUtil.SPARSE_VECTOR_VARIABLE_LENGTH);
+            DBIDRange ids = (DBIDRange) rel.getDBIDs();
+            @SuppressWarnings("unchecked")
+            Clustering<Model> c = (Clustering<Model>) run(db);
+            if (costSlack >= 0 && c.getAllClusters().size() > 1) {
+                c = balanceCost(c, cd, ids, labs);
+            }
+            parent.setDepth(depth);
+            if (!"none".equals(silhouetteMode) && (depth - 1) % silhouetteEvery == 0) {
+                parent.setSilhouette(silhouette(db, c, rel));
+            }
+            //printResults(c, ids);
+            if (c.getAllClusters().size() == 1) {
+                return;
             }
-            id++;
-            //System.out.println(id);
-            Node<TIntHashSet> cluster = new Node<>(clusterSet, parent, null, id, hierarchy);
-            children.add(cluster);
-            boolean stopCriterion = false;//stopCriterion(clusterSet);
-
-            if (clu.getIDs().size() > maxClusterSize&& !stopCriterion) {
-                int i = 0;
-                ArrayList<S> os = new ArrayList<>();
-                List<LabelList> ls = new ArrayList<>();
+            // ELKI keeps no fixed cluster order, order them by their first label
+            List<Cluster<Model>> clusters = new ArrayList<>(c.getAllClusters());
+            clusters.sort(Comparator.comparingInt(clu -> firstOffset(clu, ids)));
+            children = new ArrayList<>();
+            subtasks = new ArrayList<>();
+            List<ClusterTask> forks = new ArrayList<>();
+            for (Cluster<Model> clu : clusters) {
+                TIntHashSet clusterSet = new TIntHashSet();
+                List<Integer> clusterLabs = new ArrayList<>();
                 for (DBIDIter it = clu.getIDs().iter(); it.valid(); it.advance()) {
-                    final S obj = rel.get(it);
-                    os.add(obj);
-                    ArrayList<String> lss = new ArrayList<>();
-                    lss.add(objs.getColumn(1).get(ids.getOffset(it)) + "");
-                    ls.add(LabelList.make(lss));
-                    i++;
+                    final int label = labs.get(ids.getOffset(it));
+                    clusterLabs.add(label);
+                    clusterSet.add(label + 1);
+                }
+                Node<TIntHashSet> cluster = new Node<>(clusterSet, parent, null, -1, hierarchy);
+                boolean stopCriterion = false;//stopCriterion(clusterSet);
+                ClusterTask subtask = null;
+                if (clusterLabs.size() > maxClusterSize && !stopCriterion) {
+                    subtask = new ClusterTask(cluster, clusterLabs, cd, depth + 1);
+                    forks.add(subtask);
+                }
+                children.add(cluster);
+                subtasks.add(subtask);
+            }
+            if (sequential()) {
+                for (ClusterTask t : forks) {
+                    t.compute();
                 }
-
-                MultipleObjectsBundle objs2 = MultipleObjectsBundle.makeSimple(TypeUtil.SPARSE_VECTOR_VARIABLE_LENGTH, os, TypeUtil.LABELLIST, ls);
-                String svmFile = libSVMFile + "." + clusterId;
-                List<?> labs = objs2.getColumn(1);
-                cd.writeToFile(svmFile, labs);
-                delete(libSVMFile);
-                //this.numOfClusters = 2;
-                recursion(false, cluster, svmFile, cd, corpus);
             } else {
-                delete(libSVMFile);
+                invokeAll(forks);
             }
         }
-        depth--;
-        parent.setChildren(children, hierarchy);
     }
 
-    protected void delete(String libSVMFile) {
-        File toDelete = new File(libSVMFile + ".libSVM");
-//        if (!toDelete.delete()) {
-//            System.out.println(libSVMFile + " not deleted.");
-//        }
+    private static int firstOffset(Cluster<Model> clu, DBIDRange ids) {
+        int first = Integer.MAX_VALUE;
+        for (DBIDIter it = clu.getIDs().iter(); it.valid(); it.advance()) {
+            first = Math.min(first, ids.getOffset(it));
+        }
+        return first;
+    }
+
+    /* numbers and registers the nodes built by a task, depth first */
+    private void attach(ClusterTask task) {
+        if (task.children == null) {
+            return;
+        }
+        for (int c = 0; c < task.children.size(); c++) {
+            task.children.get(c).attach(id.incrementAndGet());
+            if (task.subtasks.get(c) != null) {
+                attach(task.subtasks.get(c));
+            }
+        }
+        task.parent.setChildren(task.children, hierarchy);
+    }
+
+    /**
+     * Moves labels out of the most expensive cluster, one at a time, into the
+     * cluster where they add the fewest new documents, for as long as this
+     * lowers the cost of the most expensive cluster. Every label moves at
+     * most once. The documents a label would remove from its cluster and add
+     * to every other are kept up to date through the labels of each
+     * document, so a move costs O(L k) to choose plus the labels of the
+     * documents of the moved label to apply, for at most L moves.
+     */
+    protected Clustering<Model> balanceCost(Clustering<Model> c, ClusteringDataset cd, DBIDRange ids,
+            List<Integer> labs) {
+        List<Cluster<Model>> clusters = c.getAllClusters();
+        int k = clusters.size();
+        int[] assignment = new int[ids.size()];
+        int[] members = new int[k];
+        int[][] supports = new int[ids.size()][];
+        TIntIntHashMap[] documents = new TIntIntHashMap[k];
+        TIntObjectHashMap<TIntArrayList> holders = new TIntObjectHashMap<>();
+        for (int i = 0; i < k; i++) {
+            documents[i] = new TIntIntHashMap();
+            for (DBIDIter it = clusters.get(i).getIDs().iter(); it.valid(); it.advance()) {
+                final int offset = ids.getOffset(it);
+                assignment[offset] = i;
+                members[i]++;
+                supports[offset] = cd.documents(labs.get(offset));
+                for (int doc : supports[offset]) {
+                    documents[i].adjustOrPutValue(doc, 1, 1);
+                    TIntArrayList h = holders.get(doc);
+                    if (h == null) {
+                        h = new TIntArrayList();
+                        holders.put(doc, h);
+                    }
+                    h.add(offset);
+                }
+            }
+        }
+        // documents only the label holds in its cluster, and documents it would add to each cluster
+        int[] removed = new int[ids.size()];
+        int[][] added = new int[ids.size()][k];
+        int[] positives = new int[ids.size()];
+        for (int offset = 0; offset < assignment.length; offset++) {
+            positives[offset] = positiveInstances(labs.get(offset));
+            for (int doc : supports[offset]) {
+                if (documents[assignment[offset]].get(doc) == 1) {
+                    removed[offset]++;
+                }
+                for (int to = 0; to < k; to++) {
+                    if (!documents[to].containsKey(doc)) {
+                        added[offset][to]++;
+                    }
+                }
+            }
+        }
+        boolean[] moved = new boolean[ids.size()];
+        double capacity = (1 + costSlack) * holders.size() / k;
+        int before = maxCost(documents);
+        int moves = 0;
+        while (true) {
+            int from = 0;
+            for (int i = 1; i < k; i++) {
+                if (documents[i].size() > documents[from].size()) {
+                    from = i;
+                }
+            }
+            if (documents[from].size() <= capacity || members[from] == 1) {
+                break;
+            }
+            int bestLabel = -1, bestTo = -1, bestMax = documents[from].size();
+            for (int offset = 0; offset < assignment.length; offset++) {
+                if (assignment[offset] != from || moved[offset]) {
+                    continue;
+                }
+                for (int to = 0; to < k; to++) {
+                    if (to == from) {
+                        continue;
+                    }
+                    int max = Math.max(documents[from].size() - removed[offset], documents[to].size() + added[offset][to]);
+                    if (max < bestMax || (max == bestMax && bestLabel >= 0 && positives[offset] < positives[bestLabel])) {
+                        bestMax = max;
+                        bestLabel = offset;
+                        bestTo = to;
+                    }
+                }
+            }
+            if (bestLabel < 0) {
+                break;
+            }
+            assignment[bestLabel] = bestTo;
+            moved[bestLabel] = true;
+            removed[bestLabel] = 0;
+            for (int doc : supports[bestLabel]) {
+                TIntArrayList h = holders.get(doc);
+                int left = documents[from].adjustOrPutValue(doc, -1, 0);
+                if (left == 0) {
+                    documents[from].remove(doc);
+                    for (int i = 0; i < h.size(); i++) {
+                        added[h.get(i)][from]++;
+                    }
+                } else if (left == 1) {
+                    for (int i = 0; i < h.size(); i++) {
+                        if (assignment[h.get(i)] == from) {
+                            removed[h.get(i)]++;
+                        }
+                    }
+                }
+                int now = documents[bestTo].adjustOrPutValue(doc, 1, 1);
+                if (now == 1) {
+                    removed[bestLabel]++;
+                    for (int i = 0; i < h.size(); i++) {
+                        added[h.get(i)][bestTo]--;
+                    }
+                } else if (now == 2) {
+                    for (int i = 0; i < h.size(); i++) {
+                        if (h.get(i) != bestLabel && assignment[h.get(i)] == bestTo) {
+                            removed[h.get(i)]--;
+                        }
+                    }
+                }
+            }
+            members[from]--;
+            members[bestTo]++;
+            moves++;
+        }
+        if (moves == 0) {
+            return c;
+        }
+        System.out.println("Cost balancing: max cluster cost " + before + " -> " + maxCost(documents)
+                + " documents (capacity " + (int) capacity + ", " + moves + " labels moved)");
+        List<ArrayModifiableDBIDs> balanced = new ArrayList<>();
+        for (int i = 0; i < k; i++) {
+            balanced.add(DBIDUtil.newArray(members[i]));
+        }
+        for (DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+            balanced.get(assignment[ids.getOffset(it)]).add(it);
+        }
+        Clustering<Model> result = new Clustering<>(c.getLongName(), c.getShortName());
+        for (ArrayModifiableDBIDs clusterIds : balanced) {
+            result.addToplevelCluster(new Cluster<Model>(clusterIds, ClusterModel.CLUSTER));
+        }
+        return result;
+    }
+
+    private int positiveInstances(int label) {
+        return labels.getPositiveInstances().get(labels.getLabel(label + 1));
+    }
+
+    private static int maxCost(TIntIntHashMap[] documents) {
+        int max = 0;
+        for (TIntIntHashMap d : documents) {
+            max = Math.max(max, d.size());
+        }
+        return max;
     }
 
     private boolean stopCriterion(TIntHashSet clusterSet, Corpus c) {
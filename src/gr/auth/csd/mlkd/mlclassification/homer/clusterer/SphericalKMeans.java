@@ -0,0 +1,266 @@
+package gr.auth.csd.mlkd.mlclassification.homer.clusterer;
+
+import de.lmu.ifi.dbs.elki.data.Cluster;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
+import de.lmu.ifi.dbs.elki.data.model.ClusterModel;
+import de.lmu.ifi.dbs.elki.data.model.Model;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.result.Result;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gr.auth.csd.mlkd.preprocessing.Labels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Balanced spherical k-means over the label vectors, without going through
+ * ELKI's generic distance functions. Every label is a unit vector over the
+ * documents of the node (or the dimensions of its sketch), centroids are
+ * sparse over the node's documents their labels cover, and each iteration
+ * assigns the labels, most confident first, to their most similar (cosine)
+ * cluster that still has room for ceil(n/k) labels. Similarities are
+ * computed in parallel on the fork-join pool of the clustering tasks.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class SphericalKMeans extends RecursiveLabelClustering<SparseNumberVector> {
+
+    /* below this many labels a node is clustered in the calling thread */
+    private static final int PARALLEL_THRESHOLD = 1000;
+
+    private final int maxIterations;
+
+    public SphericalKMeans(Labels labels, int maxClusterSize, int numOfClusters, String df,
+            int maxIterations) {
+        super(labels, maxClusterSize, numOfClusters, df);
+        // also the distance of the silhouette and of the -sketch check
+        if (df != null && !"Cos".equals(df)) {
+            System.out.println("spherical clusters by cosine, -distanceFunction " + df + " is ignored");
+        }
+        dist = distCos;
+        this.maxIterations = maxIterations;
+    }
+
+    @Override
+    protected Result run(Database db) {
+        Relation<SparseNumberVector> rel = db.getRelation(TypeUtil.SPARSE_VECTOR_VARIABLE_LENGTH);
+        DBIDRange ids = (DBIDRange) rel.getDBIDs();
+        final int n = ids.size();
+        final int k = Math.max(1, Math.min(numOfClusters, n));
+
+        // label supports over the documents of this node only, with the
+        // values of the unit label vectors
+        final int[][] supports = new int[n][];
+        final double[][] values = new double[n][];
+        TIntIntHashMap local = new TIntIntHashMap();
+        for (DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+            SparseNumberVector v = rel.get(it);
+            TIntArrayList docs = new TIntArrayList();
+            TDoubleArrayList x = new TDoubleArrayList();
+            double norm = 0;
+            for (int iter = v.iter(); v.iterValid(iter); iter = v.iterAdvance(iter)) {
+                int doc = v.iterDim(iter);
+                if (!local.containsKey(doc)) {
+                    local.put(doc, local.size());
+                }
+                docs.add(local.get(doc));
+                x.add(v.iterDoubleValue(iter));
+                norm += v.iterDoubleValue(iter) * v.iterDoubleValue(iter);
+            }
+            for (int d = 0; norm > 0 && d < x.size(); d++) {
+                x.setQuick(d, x.getQuick(d) / Math.sqrt(norm));
+            }
+            int offset = ids.getOffset(it);
+            supports[offset] = docs.toArray();
+            values[offset] = x.toArray();
+        }
+        final int documents = local.size();
+
+        // seeded by the node's labels, so that nodes clustered concurrently stay reproducible
+        long seed = n;
+        for (int[] support : supports) {
+            seed = seed * 31 + support.length;
+        }
+        final TIntDoubleHashMap[] centroids = seed(supports, values, k, new Random(seed));
+        final double[][] similarities = new double[n][k];
+        int[] assignment = null;
+        double objective = 0;
+        int iteration = 0;
+        while (iteration < maxIterations) {
+            iteration++;
+            parallel(n, n, i -> {
+                for (int j = 0; j < k; j++) {
+                    similarities[i][j] = dot(supports[i], values[i], centroids[j]);
+                }
+            });
+            int[] next = assign(similarities, k);
+            objective = 0;
+            int changed = 0;
+            for (int i = 0; i < n; i++) {
+                objective += similarities[i][next[i]];
+                if (assignment == null || assignment[i] != next[i]) {
+                    changed++;
+                }
+            }
+            assignment = next;
+            if (changed == 0) {
+                break;
+            }
+            updateCentroids(centroids, assignment, supports, values, k);
+        }
+        System.out.println("Spherical k-means: " + n + " labels, " + documents + " documents, "
+                + iteration + " iterations, mean similarity " + (float) (objective / n));
+
+        List<ArrayModifiableDBIDs> clusters = new ArrayList<>();
+        for (int j = 0; j < k; j++) {
+            clusters.add(DBIDUtil.newArray());
+        }
+        for (DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+            clusters.get(assignment[ids.getOffset(it)]).add(it);
+        }
+        Clustering<Model> result = new Clustering<>("Spherical k-means Clustering", "spherical-kmeans-clustering");
+        for (ArrayModifiableDBIDs clusterIds : clusters) {
+            if (!clusterIds.isEmpty()) {
+                result.addToplevelCluster(new Cluster<Model>(clusterIds, ClusterModel.CLUSTER));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * k-means++ seeding: every next seed is a label drawn with probability
+     * proportional to its cosine distance from the closest seed so far.
+     */
+    private TIntDoubleHashMap[] seed(final int[][] supports, final double[][] values, int k,
+            Random random) {
+        final int n = supports.length;
+        final TIntDoubleHashMap[] centroids = new TIntDoubleHashMap[k];
+        final double[] closest = new double[n];
+        int s = random.nextInt(n);
+        for (int j = 0; j < k; j++) {
+            centroids[j] = new TIntDoubleHashMap(supports[s], values[s]);
+            if (j == k - 1) {
+                break;
+            }
+            final TIntDoubleHashMap centroid = centroids[j];
+            parallel(n, n, i -> closest[i] = Math.max(closest[i], dot(supports[i], values[i], centroid)));
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                total += 1 - closest[i];
+            }
+            double r = random.nextDouble() * total;
+            for (s = 0; s < n - 1; s++) {
+                r -= 1 - closest[s];
+                if (r <= 0) {
+                    break;
+                }
+            }
+        }
+        return centroids;
+    }
+
+    /**
+     * Greedy balanced assignment: labels are visited by decreasing margin
+     * between their two most similar clusters and each takes the most
+     * similar cluster that is not full.
+     */
+    private static int[] assign(double[][] similarities, int k) {
+        final int n = similarities.length;
+        int capacity = (n + k - 1) / k;
+        final double[] margin = new double[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            double first = Double.NEGATIVE_INFINITY, second = Double.NEGATIVE_INFINITY;
+            for (double s : similarities[i]) {
+                if (s > first) {
+                    second = first;
+                    first = s;
+                } else if (s > second) {
+                    second = s;
+                }
+            }
+            margin[i] = (k == 1) ? 0 : first - second;
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(margin[b], margin[a]));
+        int[] sizes = new int[k];
+        int[] assignment = new int[n];
+        for (int i : order) {
+            int best = -1;
+            for (int j = 0; j < k; j++) {
+                if (sizes[j] < capacity && (best < 0 || similarities[i][j] > similarities[i][best])) {
+                    best = j;
+                }
+            }
+            assignment[i] = best;
+            sizes[best]++;
+        }
+        return assignment;
+    }
+
+    /* centroids are the normalized sums of the unit vectors of their labels */
+    private void updateCentroids(final TIntDoubleHashMap[] centroids, int[] assignment, final int[][] supports,
+            final double[][] values, int k) {
+        final TIntArrayList[] members = new TIntArrayList[k];
+        for (int j = 0; j < k; j++) {
+            members[j] = new TIntArrayList();
+        }
+        for (int i = 0; i < assignment.length; i++) {
+            members[assignment[i]].add(i);
+        }
+        parallel(k, assignment.length, j -> {
+            TIntDoubleHashMap c = new TIntDoubleHashMap();
+            for (int m = 0; m < members[j].size(); m++) {
+                int i = members[j].getQuick(m);
+                for (int d = 0; d < supports[i].length; d++) {
+                    c.adjustOrPutValue(supports[i][d], values[i][d], values[i][d]);
+                }
+            }
+            double norm = 0;
+            for (double x : c.values()) {
+                norm += x * x;
+            }
+            if (norm > 0) {
+                final double length = Math.sqrt(norm);
+                c.transformValues(x -> x / length);
+            }
+            centroids[j] = c;
+        });
+    }
+
+    private static double dot(int[] support, double[] values, TIntDoubleHashMap centroid) {
+        double dot = 0;
+        for (int d = 0; d < support.length; d++) {
+            dot += values[d] * centroid.get(support[d]);
+        }
+        return dot;
+    }
+
+    /*
+     * runs body for 0..n-1 as a parallel stream, or in the calling thread for
+     * nodes with few labels. Called from the clustering tasks, the stream
+     * splits into the fork-join pool they run on instead of new threads.
+     */
+    private void parallel(final int n, int labels, final IntConsumer body) {
+        if (threads == 1 || labels < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < n; i++) {
+                body.accept(i);
+            }
+            return;
+        }
+        IntStream.range(0, n).parallel().forEach(body);
+    }
+}
@@ -18,6 +18,8 @@ package gr.auth.csd.mlkd.mlclassification.homer;
 
 import de.lmu.ifi.dbs.elki.data.Cluster;
 import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
 import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
@@ -26,33 +28,87 @@ import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.CosineDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.set.HammingDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.set.JaccardSimilarityDistanceFunction;
 import de.lmu.ifi.dbs.elki.evaluation.clustering.internal.EvaluateSilhouette;
 import de.lmu.ifi.dbs.elki.evaluation.clustering.internal.NoiseHandling;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.StringStatistic;
 import de.lmu.ifi.dbs.elki.math.MeanVariance;
+import de.lmu.ifi.dbs.elki.math.linearalgebra.Vector;
 import de.lmu.ifi.dbs.elki.result.EvaluationResult;
 import de.lmu.ifi.dbs.elki.utilities.FormatUtil;
+import gnu.trove.list.array.TIntArrayList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  *
  * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ *
+ * Silhouette of a clustering, either exact, on a sample of at most
+ * sampleSize labels per cluster (weighted by cluster size), or simplified,
+ * with the distances to the cluster centroids instead of the average
+ * distances to the cluster members. The exact and sampled modes spread the
+ * evaluated labels over threads.
  */
 public class myEvaluateSilhouette<O> extends EvaluateSilhouette<O> {
 
+    private final DistanceFunction<?> distance;
+    private int sampleSize = 0;
+    private boolean centroids = false;
+    private int threads = 1;
+
     public myEvaluateSilhouette(DistanceFunction distance, NoiseHandling noiseOption, boolean penalize) {
         super(distance, noiseOption, penalize);
+        this.distance = distance;
     }
 
     public myEvaluateSilhouette(DistanceFunction distance, boolean mergenoise) {
         super(distance, mergenoise);
+        this.distance = distance;
+    }
+
+    /* evaluate at most this many labels per cluster, 0 evaluates all */
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+    /* simplified silhouette, with the distances to the cluster centroids */
+    public void setCentroids(boolean centroids) {
+        this.centroids = centroids;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
     }
 
     @Override
     public double evaluateClustering(Database db, Relation<O> rel, DistanceQuery<O> dq, Clustering<?> c) {
+        final double meansil;
+        if (centroids) {
+            meansil = simplified(rel, dq, c);
+        } else if (sampleSize > 0 || threads > 1) {
+            meansil = sampled(dq, c);
+        } else {
+            meansil = exact(dq, c);
+        }
+        EvaluationResult ev = EvaluationResult.findOrCreate(db.getHierarchy(), c, "Internal Clustering Evaluation", "internal evaluation");
+        EvaluationResult.MeasurementGroup g = ev.findOrCreateGroup("Distance-based Evaluation");
+        db.getHierarchy().resultChanged(ev);
+        return meansil;
+    }
+
+    private double exact(DistanceQuery<O> dq, Clustering<?> c) {
         List<? extends Cluster<?>> clusters = c.getAllClusters();
         myMeanVariance msil = new myMeanVariance();
         int ignorednoise = 0;
@@ -92,14 +148,191 @@ public class myEvaluateSilhouette<O> extends EvaluateSilhouette<O> {
                 if(!v.isNaN()) msil.put(v);
             }
         }
-        double penalty = 1.;
-        final double meansil = /*penalty */ msil.getMean();
-        //final double stdsil = penalty * msil.getSampleStddev();
-        EvaluationResult ev = EvaluationResult.findOrCreate(db.getHierarchy(), c, "Internal Clustering Evaluation", "internal evaluation");
-        EvaluationResult.MeasurementGroup g = ev.findOrCreateGroup("Distance-based Evaluation");
-        //g.addMeasure("Silhouette +-" + FormatUtil.NF2.format(stdsil), meansil, -1., 1., 0., false);
-        db.getHierarchy().resultChanged(ev);
-        return meansil;
+        return msil.getMean();
+    }
+
+    private double sampled(final DistanceQuery<O> dq, Clustering<?> c) {
+        final List<? extends Cluster<?>> clusters = c.getAllClusters();
+        int total = 0;
+        for (Cluster<?> cluster : clusters) {
+            total += cluster.size();
+        }
+        Random random = new Random(total);
+        final List<ArrayDBIDs> samples = new ArrayList<>();
+        final TIntArrayList owner = new TIntArrayList(), offset = new TIntArrayList();
+        for (int i = 0; i < clusters.size(); i++) {
+            DBIDs ids = clusters.get(i).getIDs();
+            ArrayDBIDs sample = (sampleSize > 0 && ids.size() > sampleSize)
+                    ? DBIDUtil.ensureArray(DBIDUtil.randomSample(ids, sampleSize, random))
+                    : DBIDUtil.ensureArray(ids);
+            samples.add(sample);
+            for (int j = 0; j < sample.size(); j++) {
+                owner.add(i);
+                offset.add(j);
+            }
+        }
+        final double[] sil = new double[owner.size()];
+        parallel(sil.length, p -> {
+            int i = owner.getQuick(p);
+            ArrayDBIDs own = samples.get(i);
+            DBIDArrayIter it1 = own.iter(), it2 = own.iter();
+            it1.seek(offset.getQuick(p));
+            double a = 0;
+            for (it2.seek(0); it2.valid(); it2.advance()) {
+                if (it2.getOffset() != it1.getOffset()) {
+                    a += dq.distance(it1, it2);
+                }
+            }
+            a /= (own.size() - 1);
+            double b = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < clusters.size(); j++) {
+                if (j == i || clusters.get(j).size() <= 1 || clusters.get(j).isNoise()) {
+                    continue;
+                }
+                double btmp = 0.;
+                for (DBIDIter it3 = samples.get(j).iter(); it3.valid(); it3.advance()) {
+                    btmp += dq.distance(it1, it3);
+                }
+                btmp /= samples.get(j).size();
+                b = btmp < b ? btmp : b;
+            }
+            b = b < Double.POSITIVE_INFINITY ? b : a;
+            sil[p] = (b - a) / (b > a ? b : a);
+        });
+        myMeanVariance msil = new myMeanVariance();
+        for (int p = 0; p < sil.length; p++) {
+            if (!Double.isNaN(sil[p])) {
+                int i = owner.getQuick(p);
+                msil.put(sil[p], (double) clusters.get(i).size() / samples.get(i).size());
+            }
+        }
+        return msil.getMean();
     }
 
+    private double simplified(Relation<O> rel, final DistanceQuery<O> dq, Clustering<?> c) {
+        final List<? extends Cluster<?>> clusters = c.getAllClusters();
+        int dimensionality = 0;
+        for (DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+            dimensionality = Math.max(dimensionality, ((NumberVector) rel.get(it)).getDimensionality());
+        }
+        final double[][] means = new double[clusters.size()][dimensionality];
+        final double[] sums = new double[clusters.size()], norms = new double[clusters.size()];
+        for (int i = 0; i < clusters.size(); i++) {
+            for (DBIDIter it = clusters.get(i).getIDs().iter(); it.valid(); it.advance()) {
+                NumberVector v = (NumberVector) rel.get(it);
+                if (v instanceof SparseNumberVector) {
+                    SparseNumberVector sv = (SparseNumberVector) v;
+                    for (int iter = sv.iter(); sv.iterValid(iter); iter = sv.iterAdvance(iter)) {
+                        means[i][sv.iterDim(iter)] += sv.iterDoubleValue(iter);
+                    }
+                } else {
+                    for (int d = 0; d < v.getDimensionality(); d++) {
+                        means[i][d] += v.doubleValue(d);
+                    }
+                }
+            }
+            for (int d = 0; d < dimensionality; d++) {
+                means[i][d] /= clusters.get(i).size();
+                sums[i] += means[i][d];
+                norms[i] += means[i][d] * means[i][d];
+            }
+        }
+        final List<ArrayDBIDs> members = new ArrayList<>();
+        final TIntArrayList owner = new TIntArrayList(), offset = new TIntArrayList();
+        for (int i = 0; i < clusters.size(); i++) {
+            ArrayDBIDs ids = DBIDUtil.ensureArray(clusters.get(i).getIDs());
+            members.add(ids);
+            for (int j = 0; j < ids.size(); j++) {
+                owner.add(i);
+                offset.add(j);
+            }
+        }
+        final double[] sil = new double[owner.size()];
+        parallel(sil.length, p -> {
+            int i = owner.getQuick(p);
+            DBIDArrayIter it = members.get(i).iter();
+            it.seek(offset.getQuick(p));
+            NumberVector v = (NumberVector) rel.get(it);
+            double a = centroidDistance(v, means[i], sums[i], norms[i]);
+            double b = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < clusters.size(); j++) {
+                if (j == i || clusters.get(j).isNoise()) {
+                    continue;
+                }
+                b = Math.min(b, centroidDistance(v, means[j], sums[j], norms[j]));
+            }
+            b = b < Double.POSITIVE_INFINITY ? b : a;
+            sil[p] = (members.get(i).size() <= 1) ? Double.NaN : (b - a) / (b > a ? b : a);
+        });
+        myMeanVariance msil = new myMeanVariance();
+        for (double v : sil) {
+            if (!Double.isNaN(v)) {
+                msil.put(v);
+            }
+        }
+        return msil.getMean();
+    }
+
+    /*
+     * distance of a vector to a centroid; sparse vectors are only visited on
+     * their non-zero dimensions for the distances used for label clustering
+     * (the set distances treat the centroid as membership fractions)
+     */
+    @SuppressWarnings("unchecked")
+    private double centroidDistance(NumberVector v, double[] mean, double sum, double norm) {
+        if (!(v instanceof SparseNumberVector)) {
+            return ((PrimitiveDistanceFunction<NumberVector>) distance).distance(v, new Vector(mean));
+        }
+        SparseNumberVector sv = (SparseNumberVector) v;
+        double dot = 0, inside = 0, squares = 0;
+        int nonZero = 0;
+        for (int iter = sv.iter(); sv.iterValid(iter); iter = sv.iterAdvance(iter)) {
+            double x = sv.iterDoubleValue(iter);
+            if (x != 0) {
+                dot += x * mean[sv.iterDim(iter)];
+                inside += mean[sv.iterDim(iter)];
+                squares += x * x;
+                nonZero++;
+            }
+        }
+        if (distance instanceof SquaredEuclideanDistanceFunction) {
+            return squares - 2 * dot + norm;
+        } else if (distance instanceof CosineDistanceFunction) {
+            return (squares == 0 || norm == 0) ? 1 : 1 - dot / Math.sqrt(squares * norm);
+        } else if (distance instanceof JaccardSimilarityDistanceFunction) {
+            double union = nonZero + sum - inside;
+            return (union == 0) ? 0 : 1 - inside / union;
+        } else if (distance instanceof HammingDistanceFunction) {
+            return nonZero - 2 * inside + sum;
+        }
+        return ((PrimitiveDistanceFunction<NumberVector>) distance).distance(v, new Vector(mean));
+    }
+
+    /* runs body for 0..n-1, split by index modulo the number of threads */
+    private void parallel(final int n, final IntConsumer body) {
+        int used = Math.min(threads, n);
+        if (used <= 1) {
+            for (int i = 0; i < n; i++) {
+                body.accept(i);
+            }
+            return;
+        }
+        Thread[] t = new Thread[used];
+        for (int mod = 0; mod < used; mod++) {
+            final int first = mod;
+            t[mod] = new Thread(() -> {
+                for (int i = first; i < n; i += used) {
+                    body.accept(i);
+                }
+            });
+            t[mod].start();
+        }
+        for (Thread thread : t) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Logger.getLogger(myEvaluateSilhouette.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
 }
@@ -25,6 +25,9 @@ public class BinaryRelevanceSVM extends MLClassifier {
     public TIntObjectHashMap<TreeSet<Integer>> labelValues;
     protected boolean score = false;
     private boolean tuned = false;
+    private long vectorizationTime = 0;
+    private long trainingTime = 0;
+    private long modelWriteTime = 0;
 
     public BinaryRelevanceSVM(String trainingFile, String testFile, String dic, 
             String labels, String modelsDirectory, int threads,boolean tuned) {
@@ -56,13 +59,19 @@ public class BinaryRelevanceSVM extends MLClassifier {
         if (!dir.exists()) {
             dir.mkdir();
         }
+        long start = System.currentTimeMillis();
         vectorize.vectorizeTrain(corpus, "train.Libsvm", "trainLabels", "metaTrainLabels");
 //        if (corpus2 != null) {
 //            vectorize.vectorizeUnlabeled(corpus2, "testFile.libSVM");
 //        }
+        vectorizationTime = System.currentTimeMillis() - start;
         System.out.println("Training..");
+        start = System.currentTimeMillis();
+        SVM.resetModelWriteTime();
         labelValues = loadLabels("trainLabels");
         startThreads(false, null);
+        trainingTime = System.currentTimeMillis() - start;
+        modelWriteTime = SVM.getModelWriteTime();
 //        if (corpus2 != null) {
 //            predictions = BinaryClassifier.getPredictions();
 //        }
@@ -77,6 +86,33 @@ public class BinaryRelevanceSVM extends MLClassifier {
         return predictions;
     }
 
+    public long getVectorizationTime() {
+        return vectorizationTime;
+    }
+
+    public long getTrainingTime() {
+        return trainingTime;
+    }
+
+    /* time spent writing models, summed over all training threads */
+    public long getModelWriteTime() {
+        return modelWriteTime;
+    }
+
+    /**
+     * Returns the raw margins of the positive class for every test document
+     * and label, instead of the binary decisions of predictInternal.
+     */
+    public double[][] predictScores(TIntHashSet mc) {
+        boolean previous = score;
+        score = true;
+        vectorize.vectorizeUnlabeled(corpus2, "testFile.libSVM");
+        startThreads(true, mc);
+        score = previous;
+        predictions = BinaryClassifier.getPredictions(false);
+        return predictions;
+    }
+
     public void startThreads(boolean predict, TIntHashSet mc) {
         Thread[] t = new Thread[threads];
         //System.out.println("creating new binary instances..");
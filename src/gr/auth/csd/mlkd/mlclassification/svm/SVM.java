@@ -21,6 +21,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,6 +35,7 @@ public class SVM extends BinaryClassifier {
     double E = 0.01;
     protected int BIAS = 1;
     private boolean tuned = false;
+    private static final AtomicLong modelWriteTime = new AtomicLong();
 
     public SVM(String trainLibSvm, String testLibSvm, int threads, int mod, int start,
             int stop, String modelFolder, TIntObjectHashMap<TreeSet<Integer>> lv,
@@ -117,9 +119,16 @@ public class SVM extends BinaryClassifier {
             m = model;
         }
         //if(label ==1) System.out.println("Test: "+Arrays.deepToString(test.x));
+        double[] decValues = new double[1];
         for (int i = 0; i < test.l; i++) {
             try {
-                d = de.bwaldvogel.liblinear.Linear.predict(m, test.x[i]);
+                if (score) {
+                    // margin of the positive class, whatever the label order of the model
+                    de.bwaldvogel.liblinear.Linear.predictValues(m, test.x[i], decValues);
+                    d = (m.getLabels()[0] == 1) ? decValues[0] : -decValues[0];
+                } else {
+                    d = de.bwaldvogel.liblinear.Linear.predict(m, test.x[i]);
+                }
                 predictions[i][label - 1] = d;
             } catch (Exception ex) {
                 Logger.getLogger(SVM.class.getName()).log(Level.SEVERE, null, ex);
@@ -221,6 +230,7 @@ public class SVM extends BinaryClassifier {
 
     @Override
     public void saveCompact(int label) {
+        long start = System.currentTimeMillis();
         ModelGr mg = new ModelGr(model);
         if (modelFolder != null) {
             try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(modelFolder + "/model" + label + ".dat")));) {
@@ -229,6 +239,15 @@ public class SVM extends BinaryClassifier {
                 System.out.println(e);
             }
         }
+        modelWriteTime.addAndGet(System.currentTimeMillis() - start);
+    }
+
+    public static long getModelWriteTime() {
+        return modelWriteTime.get();
+    }
+
+    public static void resetModelWriteTime() {
+        modelWriteTime.set(0);
     }
 
     public static void setTest(ProblemGr test) {
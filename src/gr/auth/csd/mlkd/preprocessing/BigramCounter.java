@@ -0,0 +1,203 @@
+package gr.auth.csd.mlkd.preprocessing;
+
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.procedure.TLongIntProcedure;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exact document frequencies of bigram keys in bounded memory. Counts are
+ * kept in a map of at most maxSize keys; a full map is written to a
+ * temporary file as a run sorted by key and cleared. forEachEntry merges the
+ * runs with the map, so every key is seen once with its total count. When a
+ * run cannot be written, counting goes on in memory without further spills;
+ * a run that cannot be read back fails the merge.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class BigramCounter {
+
+    private static final int BUFFER = 1 << 16;
+
+    private int maxSize;
+    private TLongIntHashMap counts = new TLongIntHashMap();
+    private final List<File> runs = new ArrayList<>();
+
+    public BigramCounter(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public void increment(long key) {
+        counts.adjustOrPutValue(key, 1, 1);
+        if (counts.size() >= maxSize) {
+            spill();
+        }
+    }
+
+    /* adds count to the count of key, as increment does 1 */
+    public void add(long key, int count) {
+        counts.adjustOrPutValue(key, count, count);
+        if (counts.size() >= maxSize) {
+            spill();
+        }
+    }
+
+    public int runs() {
+        return runs.size();
+    }
+
+    private void spill() {
+        long[] keys = counts.keys();
+        Arrays.sort(keys);
+        File run = null;
+        try {
+            run = File.createTempFile("bigrams", ".run");
+            run.deleteOnExit();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER))) {
+                for (long key : keys) {
+                    out.writeLong(key);
+                    out.writeInt(counts.get(key));
+                }
+            }
+            runs.add(run);
+            counts = new TLongIntHashMap();
+        } catch (IOException ex) {
+            // keep counting in memory, without retrying at every increment
+            Logger.getLogger(BigramCounter.class.getName()).log(Level.SEVERE, null, ex);
+            maxSize = Integer.MAX_VALUE;
+            if (run != null) {
+                run.delete();
+            }
+        }
+    }
+
+    /*
+     * calls procedure on every key with its count, in no particular order
+     * without runs; a run that cannot be read throws an UncheckedIOException
+     */
+    public void forEachEntry(TLongIntProcedure procedure) {
+        if (runs.isEmpty()) {
+            counts.forEachEntry(procedure);
+            return;
+        }
+        PriorityQueue<Run> queue = new PriorityQueue<>((a, b) -> Long.compare(a.key, b.key));
+        try {
+            long[] keys = counts.keys();
+            Arrays.sort(keys);
+            int[] values = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                values[i] = counts.get(keys[i]);
+            }
+            counts = null;
+            add(queue, new MemoryRun(keys, values));
+            for (File file : runs) {
+                add(queue, new FileRun(file));
+            }
+            while (!queue.isEmpty()) {
+                Run run = queue.poll();
+                long key = run.key;
+                int count = run.count;
+                add(queue, run);
+                while (!queue.isEmpty() && queue.peek().key == key) {
+                    run = queue.poll();
+                    count += run.count;
+                    add(queue, run);
+                }
+                procedure.execute(key, count);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            for (Run run : queue) {
+                run.close();
+            }
+            for (File file : runs) {
+                file.delete();
+            }
+            runs.clear();
+        }
+    }
+
+    private static void add(PriorityQueue<Run> queue, Run run) throws IOException {
+        if (run.next()) {
+            queue.add(run);
+        } else {
+            run.close();
+        }
+    }
+
+    private abstract static class Run {
+
+        long key;
+        int count;
+
+        abstract boolean next() throws IOException;
+
+        void close() {
+        }
+    }
+
+    private static class MemoryRun extends Run {
+
+        private final long[] keys;
+        private final int[] values;
+        private int i = 0;
+
+        MemoryRun(long[] keys, int[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        boolean next() {
+            if (i == keys.length) {
+                return false;
+            }
+            key = keys[i];
+            count = values[i++];
+            return true;
+        }
+    }
+
+    private static class FileRun extends Run {
+
+        private final DataInputStream in;
+
+        FileRun(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER));
+        }
+
+        @Override
+        boolean next() throws IOException {
+            try {
+                key = in.readLong();
+            } catch (EOFException ex) {
+                return false;
+            }
+            count = in.readInt();
+            return true;
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ex) {
+            }
+        }
+    }
+}
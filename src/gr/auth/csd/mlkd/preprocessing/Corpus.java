@@ -8,8 +8,26 @@ import java.io.Serializable;
  * @version 2013.07.22
  */
 public abstract class Corpus implements Serializable {    
+
+    /* document fields, for projections */
+    public static final String ID = "id";
+    public static final String TITLE = "title";
+    public static final String ABSTRACT = "abstract";
+    public static final String BODY = "body";
+    public static final String JOURNAL = "journal";
+    public static final String YEAR = "year";
+    public static final String LABELS = "labels";
     
     public abstract Document nextDocument();
+
+    /**
+     * A corpus over the same documents whose nextDocument() only fills the
+     * given fields, for passes that do not need the text. Corpora that have
+     * nothing to save by it return themselves.
+     */
+    public Corpus projection(String... fields) {
+        return this;
+    }
     
     public abstract void reset();
     public abstract void close();
@@ -0,0 +1,275 @@
+package gr.auth.csd.mlkd.preprocessing;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.THashSet;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A corpus converted once from JSON into a binary store of token ids, read
+ * through a memory-mapped file. Every document keeps its id, title, label ids
+ * and its sentences as sequences of token ids, the tokens being those of
+ * Document.getContentAsSentencesOfTokens(false). Passes over the corpus are
+ * sequential scans, without JSON parsing or tokenization.
+ *
+ * Only the fields used for vectorizing are kept: abstracts and bodies are
+ * not, so this cannot replace CorpusJSON where documents are written back
+ * as JSON.
+ *
+ * Layout: a header (magic, version, documents, offset of the tables), the
+ * documents, and the tables of tokens, labels and segment offsets. The file
+ * is mapped in segments of at most SEGMENT bytes that start at document
+ * boundaries. Documents are handed out as sentences of token strings, so
+ * dictionaries and vectorizers still look tokens up by string.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class CorpusBinary extends Corpus {
+
+    static final long serialVersionUID = -2837561829308423013L;
+    private static final int MAGIC = 0x484f4d52;
+    private static final int VERSION = 1;
+    private static final int HEADER = 4 + 4 + 4 + 8;
+    private static final long SEGMENT = 1 << 30;
+
+    private final String file;
+    private transient MappedByteBuffer[] segments;
+    private transient String[] tokens;
+    private transient String[] labels;
+    private transient int documents;
+    private transient int segment;
+    private transient int read;
+
+    public CorpusBinary(String aFile) {
+        file = aFile;
+    }
+
+    /**
+     * The binary store of a JSON corpus, next to it as jsonFile.bin, or as
+     * jsonFile.name.bin for tokenizers other than CoreNLP. It is converted
+     * again when missing or older than the JSON file; a failed conversion
+     * leaves no binary file behind and throws an UncheckedIOException.
+     */
+    public static CorpusBinary open(String jsonFile) {
+        String binaryFile = jsonFile + (Document.getTokenizer().equals(Tokenizer.CORENLP)
+                ? "" : "." + Document.getTokenizer()) + ".bin";
+        File bin = new File(binaryFile);
+        if (!bin.exists() || bin.lastModified() < new File(jsonFile).lastModified()) {
+            convert(new CorpusJSON(jsonFile), binaryFile);
+        }
+        return new CorpusBinary(binaryFile);
+    }
+
+    /* writes the store to a temporary file first, which replaces binaryFile once complete */
+    public static void convert(Corpus corpus, String binaryFile) {
+        System.out.printf("%tc: Converting corpus to %s%n", new Date(), binaryFile);
+        File temporary = new File(binaryFile + ".tmp");
+        TObjectIntHashMap<String> tokenIds = new TObjectIntHashMap<>();
+        List<String> tokenList = new ArrayList<>();
+        TObjectIntHashMap<String> labelIds = new TObjectIntHashMap<>();
+        List<String> labelList = new ArrayList<>();
+        TLongArrayList segmentOffsets = new TLongArrayList();
+        int count = 0;
+        long tokenCount = 0;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0);
+                out.writeLong(0);
+                long position = HEADER;
+                segmentOffsets.add(HEADER);
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                DataOutputStream record = new DataOutputStream(buffer);
+                Document doc;
+                corpus.reset();
+                while ((doc = corpus.nextDocument()) != null) {
+                    buffer.reset();
+                    writeString(record, doc.getId());
+                    writeString(record, doc.getTitle());
+                    record.writeInt(doc.getLabels().size());
+                    for (String label : doc.getLabels()) {
+                        record.writeInt(id(labelIds, labelList, label));
+                    }
+                    List<String> lines = doc.getContentAsSentencesOfTokens(false);
+                    record.writeInt(lines.size());
+                    for (String line : lines) {
+                        String[] split = line.split(" ");
+                        record.writeInt(split.length);
+                        for (String token : split) {
+                            record.writeInt(id(tokenIds, tokenList, token));
+                        }
+                        tokenCount += split.length;
+                    }
+                    record.flush();
+                    if (position + buffer.size() - segmentOffsets.get(segmentOffsets.size() - 1) > SEGMENT) {
+                        segmentOffsets.add(position);
+                    }
+                    buffer.writeTo(out);
+                    position += buffer.size();
+                    count++;
+                }
+                corpus.close();
+                writeTable(out, tokenList);
+                writeTable(out, labelList);
+                out.writeInt(segmentOffsets.size());
+                for (int s = 0; s < segmentOffsets.size(); s++) {
+                    out.writeLong(segmentOffsets.get(s));
+                }
+                segmentOffsets.add(position);
+                out.flush();
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(temporary, "rw")) {
+                raf.seek(8);
+                raf.writeInt(count);
+                raf.writeLong(segmentOffsets.get(segmentOffsets.size() - 1));
+            }
+            Files.move(temporary.toPath(), new File(binaryFile).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            temporary.delete();
+        }
+        System.out.printf("%tc: %d documents, %d tokens, %d distinct tokens, %d labels%n", new Date(),
+                count, tokenCount, tokenList.size(), labelList.size());
+    }
+
+    private static int id(TObjectIntHashMap<String> ids, List<String> list, String s) {
+        if (!ids.containsKey(s)) {
+            ids.put(s, list.size());
+            list.add(s);
+        }
+        return ids.get(s);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = (s == null) ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeTable(DataOutputStream out, List<String> table) throws IOException {
+        out.writeInt(table.size());
+        for (String s : table) {
+            writeString(out, s);
+        }
+    }
+
+    private static String readString(MappedByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String[] readTable(MappedByteBuffer in) {
+        String[] table = new String[in.getInt()];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = readString(in);
+        }
+        return table;
+    }
+
+    private void open() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not a binary corpus");
+            }
+            documents = header.getInt();
+            long tables = header.getLong();
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, tables, channel.size() - tables);
+            tokens = readTable(in);
+            labels = readTable(in);
+            long[] offsets = new long[in.getInt() + 1];
+            for (int s = 0; s < offsets.length - 1; s++) {
+                offsets[s] = in.getLong();
+            }
+            offsets[offsets.length - 1] = tables;
+            segments = new MappedByteBuffer[offsets.length - 1];
+            for (int s = 0; s < segments.length; s++) {
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, offsets[s], offsets[s + 1] - offsets[s]);
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        try {
+            if (segments == null) {
+                open();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        for (MappedByteBuffer s : segments) {
+            s.rewind();
+        }
+        segment = 0;
+        read = 0;
+    }
+
+    @Override
+    public Document nextDocument() {
+        while (segment < segments.length && !segments[segment].hasRemaining()) {
+            segment++;
+        }
+        if (read == documents || segment == segments.length) {
+            return null;
+        }
+        MappedByteBuffer in = segments[segment];
+        Document document = new Document();
+        document.setPmid(readString(in));
+        document.setTitle(readString(in));
+        THashSet<String> docLabels = new THashSet<>();
+        int numLabels = in.getInt();
+        for (int l = 0; l < numLabels; l++) {
+            docLabels.add(labels[in.getInt()]);
+        }
+        document.setLabels(docLabels);
+        int numSentences = in.getInt();
+        List<String> lines = new ArrayList<>(numSentences);
+        StringBuilder sb = new StringBuilder();
+        for (int s = 0; s < numSentences; s++) {
+            int length = in.getInt();
+            sb.setLength(0);
+            for (int t = 0; t < length; t++) {
+                sb.append(tokens[in.getInt()]).append(" ");
+            }
+            lines.add(sb.toString());
+        }
+        document.setSentences(lines);
+        read++;
+        return document;
+    }
+
+    public int numTokens() {
+        return tokens.length;
+    }
+
+    public int size() {
+        if (segments == null) {
+            reset();
+        }
+        return documents;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,177 @@
+package gr.auth.csd.mlkd.preprocessing;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gr.auth.csd.mlkd.utils.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonLocation;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Sidecar index of a JSON corpus, kept next to it as jsonFile.idx: the byte
+ * offset and id of every document, and the documents of every label. It is
+ * built with one streaming pass that skips titles and texts, and rebuilt
+ * when the length or the modification time of the JSON file changes.
+ * Indexes are also cached in memory, so that CorpusJSON.size() and lookups
+ * by id do not read the file again, until they are removed with the file.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class CorpusIndex implements Serializable {
+
+    static final long serialVersionUID = 4317290547210318849L;
+    private static final Map<String, CorpusIndex> cache = new ConcurrentHashMap<>();
+
+    private long length;
+    private long modified;
+    private final TLongArrayList offsets = new TLongArrayList();
+    private final List<String> ids = new ArrayList<>();
+    private final TObjectIntHashMap<String> ordinals = new TObjectIntHashMap<>();
+    private final Map<String, TIntArrayList> postings = new HashMap<>();
+
+    public CorpusIndex() {
+    }
+
+    /* the index of the JSON file, from the cache, the sidecar or a new pass */
+    public static CorpusIndex of(String jsonFile) {
+        File json = new File(jsonFile);
+        String key = json.getAbsolutePath();
+        CorpusIndex index = cache.get(key);
+        if (index != null && index.matches(json)) {
+            return index;
+        }
+        File sidecar = new File(jsonFile + ".idx");
+        if (sidecar.exists()) {
+            index = (CorpusIndex) Utils.readObject(sidecar.getPath());
+        }
+        if (index == null || !index.matches(json)) {
+            index = build(jsonFile);
+            index.save(jsonFile);
+        }
+        cache.put(key, index);
+        return index;
+    }
+
+    private boolean matches(File json) {
+        return json.length() == length && json.lastModified() == modified;
+    }
+
+    /* a full pass over the JSON file; a file that cannot be read throws an UncheckedIOException */
+    public static CorpusIndex build(String jsonFile) {
+        CorpusIndex index = new CorpusIndex();
+        try (JsonParser parser = new JsonFactory().createJsonParser(new File(jsonFile))) {
+            parser.nextToken(); // root object
+            parser.nextToken(); // root array field
+            parser.nextToken(); // start of array
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                // jackson 1.x parsers over bytes report the byte offset as the char offset,
+                // which may be that of the separator before the document
+                JsonLocation location = parser.getTokenLocation();
+                long offset = (location.getByteOffset() >= 0) ? location.getByteOffset() : location.getCharOffset();
+                String pmid = null, id = null;
+                List<String> mesh = null, labels = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if ("pmid".equals(field) && value.isScalarValue()) {
+                        pmid = parser.getText();
+                    } else if ("id".equals(field) && value.isScalarValue()) {
+                        id = parser.getText();
+                    } else if ("meshMajor".equals(field) && value == JsonToken.START_ARRAY) {
+                        mesh = strings(parser);
+                    } else if ("labels".equals(field) && value == JsonToken.START_ARRAY) {
+                        labels = strings(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                // same precedence as CorpusJSON.nextDocument
+                index.add(offset, (id != null) ? id : pmid, (mesh != null) ? mesh : labels);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return index;
+    }
+
+    private static List<String> strings(JsonParser parser) throws IOException {
+        List<String> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(parser.getText());
+            parser.skipChildren();
+        }
+        return values;
+    }
+
+    /* appends the next document, for files written together with their index */
+    public void add(long offset, String id, Collection<String> labels) {
+        int ordinal = offsets.size();
+        offsets.add(offset);
+        ids.add(id);
+        if (id != null && !ordinals.containsKey(id)) {
+            ordinals.put(id, ordinal);
+        }
+        if (labels != null) {
+            for (String label : labels) {
+                TIntArrayList docs = postings.get(label);
+                if (docs == null) {
+                    docs = new TIntArrayList();
+                    postings.put(label, docs);
+                }
+                if (docs.isEmpty() || docs.get(docs.size() - 1) != ordinal) {
+                    docs.add(ordinal);
+                }
+            }
+        }
+    }
+
+    /* stamps the index with the current state of the JSON file and writes the sidecar */
+    public void save(String jsonFile) {
+        File json = new File(jsonFile);
+        length = json.length();
+        modified = json.lastModified();
+        Utils.writeObject(this, jsonFile + ".idx");
+        cache.put(json.getAbsolutePath(), this);
+    }
+
+    /* deletes the sidecar of a JSON file that is deleted and drops its cached index */
+    public static void remove(String jsonFile) {
+        new File(jsonFile + ".idx").delete();
+        cache.remove(new File(jsonFile).getAbsolutePath());
+    }
+
+    public int size() {
+        return offsets.size();
+    }
+
+    public long offset(int ordinal) {
+        return offsets.get(ordinal);
+    }
+
+    public String id(int ordinal) {
+        return ids.get(ordinal);
+    }
+
+    /* the ordinal of the document with this id, or -1 */
+    public int ordinal(String id) {
+        return ordinals.containsKey(id) ? ordinals.get(id) : -1;
+    }
+
+    /* the sorted ordinals of the documents with this label */
+    public TIntArrayList documents(String label) {
+        TIntArrayList docs = postings.get(label);
+        return (docs == null) ? new TIntArrayList() : docs;
+    }
+}
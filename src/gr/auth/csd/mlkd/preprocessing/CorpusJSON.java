@@ -1,13 +1,24 @@
 package gr.auth.csd.mlkd.preprocessing;
 
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.set.hash.THashSet;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.codehaus.jackson.JsonFactory;
-import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.MappingJsonFactory;
@@ -25,66 +36,151 @@ public class CorpusJSON extends Corpus {
     private final String file;
     protected final JsonFactory jsonFactory;
     protected JsonParser jsonParser;
+    private int position;
+    /* the document fields read by nextDocument, null for all of them */
+    private Set<String> fields = null;
+    private static final Map<String, String> FIELDS = new HashMap<>();
+    /* gaps of up to this many documents are read through instead of seeking */
+    private static final int SKIP = 64;
+
+    static {
+        FIELDS.put("abstract", ABSTRACT);
+        FIELDS.put("abstractText", ABSTRACT);
+        FIELDS.put("words", ABSTRACT);
+        FIELDS.put("title", TITLE);
+        FIELDS.put("journal", JOURNAL);
+        FIELDS.put("full_text", BODY);
+        FIELDS.put("pmid", ID);
+        FIELDS.put("id", ID);
+        FIELDS.put("year", YEAR);
+        FIELDS.put("meshMajor", LABELS);
+        FIELDS.put("labels", LABELS);
+    }
 
     public CorpusJSON(String aFile) {
         file = aFile;
         jsonFactory = new MappingJsonFactory();
     }
 
+    @Override
+    public Corpus projection(String... documentFields) {
+        CorpusJSON projected = new CorpusJSON(file);
+        projected.fields = new HashSet<>(Arrays.asList(documentFields));
+        return projected;
+    }
+
     @Override
     public Document nextDocument() {
-        Document document = new Document();
         try {
-            /*
-             JsonToken token = jsonParser.nextToken();
-             if (token == JsonToken.END_OBJECT) {
-             return null;
-             } */
-
             JsonToken current = jsonParser.nextToken();
-            if (current == JsonToken.END_ARRAY) {
+            if (current == JsonToken.END_ARRAY || current == null) {
                 return null;
             }
-            JsonNode node = jsonParser.readValueAsTree();
-            if (node.get("abstract") != null) {
-                document.setAbstract(node.get("abstract").asText());
-            } else if (node.get("abstractText") != null) {
-                document.setAbstract(node.get("abstractText").asText());
-            } else if(node.get("words") != null) {
-                document.setAbstract(node.get("words").asText());
-            }
-            if (node.get("title") != null) document.setTitle(node.get("title").asText());
-            if (node.get("journal") != null) document.setJournal(node.get("journal").asText());
-            if (node.get("full_text") != null) document.setBody(node.get("full_text").asText());
-            if (node.get("pmid") != null) document.setPmid(node.get("pmid").asText());
-            if (node.get("id") != null) document.setPmid(node.get("id").asText());
-            if (node.get("year") != null) document.setYear(node.get("year").asInt());
-            if (node.get("meshMajor") != null) {
-                JsonNode labelsNode = node.get("meshMajor");
-                THashSet<String> meshTerms = new THashSet<>();
-                Iterator<JsonNode> it = labelsNode.getElements();
-                while (it.hasNext()) {
-                    meshTerms.add(it.next().asText());
-                }
-                document.setLabels(meshTerms);
-            }
-            else if (node.get("labels") != null) {
-                JsonNode labelsNode = node.get("labels");
-                THashSet<String> meshTerms = new THashSet<>();
-                Iterator<JsonNode> it = labelsNode.getElements();
-                while (it.hasNext()) {
-                    meshTerms.add(it.next().asText());
-                }
-                document.setLabels(meshTerms);
-            }
-            return document;
-
+            position++;
+            return readDocument(jsonParser, fields);
         } catch (IOException ex) {
             Logger.getLogger(CorpusJSON.class.getName()).log(Level.SEVERE, null, ex);
             return null;
         }
     }
 
+    /*
+     * Streams the fields of the document object the parser is at, skipping
+     * with skipChildren() those outside the projection (null for all of
+     * them). Values follow JsonNode.asText()/asInt().
+     */
+    static Document readDocument(JsonParser jsonParser, Set<String> fields) throws IOException {
+        Document document = new Document();
+        String abs = null, abstractText = null, words = null, pmid = null, id = null;
+        THashSet<String> meshMajor = null, labels = null;
+        while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+            String documentField = FIELDS.get(field);
+            if (documentField == null || (fields != null && !fields.contains(documentField))) {
+                jsonParser.skipChildren();
+                continue;
+            }
+            switch (field) {
+                case "abstract":
+                    abs = text(jsonParser);
+                    break;
+                case "abstractText":
+                    abstractText = text(jsonParser);
+                    break;
+                case "words":
+                    words = text(jsonParser);
+                    break;
+                case "title":
+                    document.setTitle(text(jsonParser));
+                    break;
+                case "journal":
+                    document.setJournal(text(jsonParser));
+                    break;
+                case "full_text":
+                    document.setBody(text(jsonParser));
+                    break;
+                case "pmid":
+                    pmid = text(jsonParser);
+                    break;
+                case "id":
+                    id = text(jsonParser);
+                    break;
+                case "year":
+                    document.setYear(jsonParser.getValueAsInt(0));
+                    jsonParser.skipChildren();
+                    break;
+                case "meshMajor":
+                    meshMajor = elements(jsonParser);
+                    break;
+                case "labels":
+                    labels = elements(jsonParser);
+                    break;
+            }
+        }
+        if (abs != null) {
+            document.setAbstract(abs);
+        } else if (abstractText != null) {
+            document.setAbstract(abstractText);
+        } else if (words != null) {
+            document.setAbstract(words);
+        }
+        if (id != null) {
+            document.setPmid(id);
+        } else if (pmid != null) {
+            document.setPmid(pmid);
+        }
+        if (meshMajor != null) {
+            document.setLabels(meshMajor);
+        } else if (labels != null) {
+            document.setLabels(labels);
+        }
+        return document;
+    }
+
+    private static String text(JsonParser jsonParser) throws IOException {
+        if (jsonParser.getCurrentToken() == JsonToken.VALUE_NUMBER_FLOAT) {
+            return Double.toString(jsonParser.getDoubleValue());
+        }
+        if (jsonParser.getCurrentToken().isScalarValue()) {
+            return jsonParser.getText();
+        }
+        jsonParser.skipChildren();
+        return "";
+    }
+
+    private static THashSet<String> elements(JsonParser jsonParser) throws IOException {
+        THashSet<String> elements = new THashSet<>();
+        if (jsonParser.getCurrentToken() != JsonToken.START_ARRAY) {
+            jsonParser.skipChildren();
+            return elements;
+        }
+        while (jsonParser.nextToken() != JsonToken.END_ARRAY) {
+            elements.add(text(jsonParser));
+        }
+        return elements;
+    }
+
     @Override
     public void reset() {
         File f;
@@ -94,33 +190,109 @@ public class CorpusJSON extends Corpus {
             jsonParser.nextToken(); // gets root object
             jsonParser.nextToken(); // get root array element, e.g. documents/articles
             jsonParser.nextToken(); // get start of array
+            position = 0;
         } catch (IOException ex) {
             Logger.getLogger(CorpusJSON.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
+    /**
+     * Positions the corpus so that the next document returned is the one
+     * with this ordinal, using the offsets of the corpus index.
+     */
+    public void seek(int ordinal) {
+        close();
+        try {
+            FileInputStream in = new FileInputStream(file);
+            in.getChannel().position(index().offset(ordinal));
+            InputStream buffered = new BufferedInputStream(in);
+            // offsets may point at the separator before the document
+            for (int c = buffered.read(); c != '{' && c != -1; c = buffered.read()) {
+            }
+            // reopens the array of documents at this one
+            InputStream array = new SequenceInputStream(new ByteArrayInputStream(new byte[]{'[', '{'}), buffered);
+            jsonParser = jsonFactory.createJsonParser(array);
+            jsonParser.nextToken();
+            position = ordinal;
+        } catch (IOException ex) {
+            Logger.getLogger(CorpusJSON.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /*
+     * the documents with these (sorted) ordinals, seeking over long gaps and
+     * skipping short ones without building their trees
+     */
+    public List<Document> documents(TIntArrayList ordinals) {
+        List<Document> docs = new ArrayList<>(ordinals.size());
+        reset();
+        try {
+            for (int i = 0; i < ordinals.size(); i++) {
+                int ordinal = ordinals.get(i);
+                if (ordinal < position || ordinal - position > SKIP) {
+                    seek(ordinal);
+                }
+                while (position < ordinal) {
+                    jsonParser.nextToken();
+                    jsonParser.skipChildren();
+                    position++;
+                }
+                docs.add(nextDocument());
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(CorpusJSON.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        close();
+        return docs;
+    }
+
+    /* the documents with these ids, in the order of the file */
+    public List<Document> documents(Set<String> ids) {
+        TIntArrayList ordinals = new TIntArrayList();
+        CorpusIndex index = index();
+        for (String id : ids) {
+            int ordinal = index.ordinal(id);
+            if (ordinal >= 0) {
+                ordinals.add(ordinal);
+            }
+        }
+        ordinals.sort();
+        return documents(ordinals);
+    }
+
+    public CorpusIndex index() {
+        return CorpusIndex.of(file);
+    }
+
+    public int size() {
+        return index().size();
+    }
+
     @Override
     public void close() {
         try {
-            jsonParser.close();
+            if (jsonParser != null) {
+                jsonParser.close();
+            }
         } catch (IOException ex) {
         }
     }
     
     public static int size(String c) {
         if (c == null) return 0;
-        CorpusJSON corpus2 = new CorpusJSON(c);
-        corpus2.reset();
-        Document doc;
-        int testSize = 0;
-        while ((doc = corpus2.nextDocument()) != null) {
-            testSize++;
-        }
-                corpus2.close();
-        return testSize;
+        return new CorpusJSON(c).size();
     }
     
     public static int size(Corpus c) {
         if (c == null) return 0;
+        if (c instanceof CorpusJSON) {
+            return ((CorpusJSON) c).size();
+        }
+        if (c instanceof CorpusBinary) {
+            return ((CorpusBinary) c).size();
+        }
+        if (c instanceof CorpusJSONL) {
+            return ((CorpusJSONL) c).size();
+        }
         c.reset();
         Document doc;
         int testSize = 0;
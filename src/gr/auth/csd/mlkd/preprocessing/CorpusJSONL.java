@@ -0,0 +1,265 @@
+package gr.auth.csd.mlkd.preprocessing;
+
+import gnu.trove.set.hash.THashSet;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * A corpus in JSON Lines: one document object per line, with the same fields
+ * as CorpusJSON. A file can be split into byte ranges, each reading the lines
+ * that start inside it, so that forEachDocument passes over the ranges in
+ * parallel. A file that cannot be read throws an UncheckedIOException.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class CorpusJSONL extends Corpus {
+
+    static final long serialVersionUID = -6120874523097451128L;
+    private static final int BUFFER = 1 << 16;
+
+    private final String file;
+    private final long start;
+    private final long end;
+    private Set<String> fields = null;
+    private final transient JsonFactory jsonFactory = new JsonFactory();
+    private transient InputStream in;
+    private transient byte[] buffer;
+    private transient int buffered;
+    private transient int next;
+    private transient long position;
+    private transient byte[] line;
+
+    public CorpusJSONL(String aFile) {
+        this(aFile, 0, Long.MAX_VALUE);
+    }
+
+    /* the documents whose lines start at a byte in [start, end) */
+    public CorpusJSONL(String aFile, long start, long end) {
+        this.file = aFile;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * The JSON Lines copy of a JSON corpus, next to it as jsonFile.jsonl. It
+     * is converted again when missing or older than the JSON file.
+     */
+    public static CorpusJSONL open(String jsonFile) {
+        String jsonlFile = jsonFile + ".jsonl";
+        File jsonl = new File(jsonlFile);
+        if (!jsonl.exists() || jsonl.lastModified() < new File(jsonFile).lastModified()) {
+            convert(new CorpusJSON(jsonFile), jsonlFile);
+        }
+        return new CorpusJSONL(jsonlFile);
+    }
+
+    @Override
+    public Corpus projection(String... documentFields) {
+        CorpusJSONL projected = new CorpusJSONL(file, start, end);
+        projected.fields = new HashSet<>(Arrays.asList(documentFields));
+        return projected;
+    }
+
+    /* the file split into (at most) n byte ranges of about the same length */
+    public List<CorpusJSONL> split(int n) {
+        long length = Math.min(end, new File(file).length()) - start;
+        List<CorpusJSONL> splits = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            long from = start + length * i / n, to = start + length * (i + 1) / n;
+            if (to > from) {
+                CorpusJSONL split = new CorpusJSONL(file, from, to);
+                split.fields = fields;
+                splits.add(split);
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * Calls action on every document, with one thread per split of the file.
+     * Documents reach action in no particular order and from several threads
+     * at once. The first exception of a split cancels the others and is
+     * rethrown, wrapped in a RuntimeException if it is checked.
+     */
+    public void forEachDocument(int threads, final Consumer<Document> action) {
+        List<CorpusJSONL> splits = split(Math.max(1, threads));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, splits.size()));
+        final AtomicBoolean failed = new AtomicBoolean();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final CorpusJSONL split : splits) {
+                futures.add(executor.submit(() -> {
+                    split.reset();
+                    try {
+                        Document doc;
+                        while (!failed.get() && (doc = split.nextDocument()) != null) {
+                            action.accept(doc);
+                        }
+                    } catch (RuntimeException | Error ex) {
+                        failed.set(true);
+                        throw ex;
+                    } finally {
+                        split.close();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } finally {
+            failed.set(true);
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public void reset() {
+        close();
+        buffer = new byte[BUFFER];
+        line = new byte[1024];
+        buffered = 0;
+        next = 0;
+        try {
+            in = new FileInputStream(file);
+            if (start > 0) {
+                // the line through start - 1 belongs to the previous range
+                ((FileInputStream) in).getChannel().position(start - 1);
+                position = start - 1;
+                readLine();
+            } else {
+                position = 0;
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public Document nextDocument() {
+        try {
+            while (position < end) {
+                int length = readLine();
+                if (length < 0) {
+                    return null;
+                }
+                JsonParser parser = jsonFactory.createJsonParser(line, 0, length);
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Document document = CorpusJSON.readDocument(parser, fields);
+                    parser.close();
+                    return document;
+                }
+                parser.close();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return null;
+    }
+
+    /* reads the next line into line, without its newline; -1 at the end of the file */
+    private int readLine() throws IOException {
+        int length = 0;
+        while (true) {
+            if (next == buffered) {
+                buffered = in.read(buffer);
+                next = 0;
+                if (buffered <= 0) {
+                    buffered = 0;
+                    return (length > 0) ? length : -1;
+                }
+            }
+            int newline = next;
+            while (newline < buffered && buffer[newline] != '\n') {
+                newline++;
+            }
+            int chunk = newline - next;
+            if (length + chunk > line.length) {
+                line = Arrays.copyOf(line, Math.max(2 * line.length, length + chunk));
+            }
+            System.arraycopy(buffer, next, line, length, chunk);
+            length += chunk;
+            position += chunk;
+            next = newline;
+            if (newline < buffered) {
+                next++;
+                position++;
+                return length;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        } catch (IOException ex) {
+        }
+    }
+
+    public int size() {
+        final AtomicInteger count = new AtomicInteger();
+        ((CorpusJSONL) projection(Corpus.ID)).forEachDocument(Runtime.getRuntime().availableProcessors(),
+                doc -> count.incrementAndGet());
+        return count.get();
+    }
+
+    /* writes the documents of the corpus one per line, to a temporary file that replaces jsonlFile once complete */
+    public static void convert(Corpus corpus, String jsonlFile) {
+        JsonFactory jfactory = new JsonFactory();
+        File temporary = new File(jsonlFile + ".tmp");
+        try {
+            try (JsonGenerator jGenerator = jfactory.createJsonGenerator(temporary, JsonEncoding.UTF8)) {
+                Document doc;
+                corpus.reset();
+                while ((doc = corpus.nextDocument()) != null) {
+                    THashSet<String> ls = new THashSet<>(doc.getLabels());
+                    Parser.write(jGenerator, doc.getId(), doc.getTitle(), doc.getAbs(),
+                            Integer.toString(doc.getYear()), doc.getJournal(), ls, doc.getBody());
+                }
+                corpus.close();
+            }
+            Files.move(temporary.toPath(), new File(jsonlFile).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            temporary.delete();
+        }
+    }
+}
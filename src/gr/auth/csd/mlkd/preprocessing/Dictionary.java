@@ -1,29 +1,52 @@
 package gr.auth.csd.mlkd.preprocessing;
 
 
-import gnu.trove.iterator.TObjectIntIterator;
+import gnu.trove.iterator.TLongIntIterator;
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.hash.TLongHashSet;
 import gr.auth.csd.mlkd.utils.StopWords;
 import gr.auth.csd.mlkd.utils.Utils;
 import gr.auth.csd.mlkd.utils.WordFreq;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
 
 /**
+ * The uni- and bigrams of a corpus. Tokens are numbered by a vocabulary and
+ * an n-gram is packed into a long key, the id of its first token in the high
+ * half and the id of the second (all ones for a unigram) in the low half, so
+ * that n-grams are counted and looked up in primitive maps.
+ *
  * @author Grigorios Tsoumakas
  * @version 2013.07.19
  */
 public class Dictionary implements Serializable {
 
-    static final long serialVersionUID = 8350541949393366632L;
-    protected Map<NGram, Integer> id;
-    protected Map<Integer, NGram> ngram;
-    private int corpusSize;
-    protected TObjectIntHashMap<NGram> documentFrequency;
-    private List<Integer> nGramSizes;
+    static final long serialVersionUID = 4216930736215590131L;
+    private static final long UNIGRAM = 0xffffffffL;
+    protected TLongIntHashMap id;
+    protected long[] ngram;
+    protected int corpusSize;
+    protected TLongIntHashMap documentFrequency;
+    protected List<Integer> nGramSizes;
+    /* token ids, -1 for tokens that are never part of an n-gram */
+    protected TObjectIntHashMap<String> tokenId;
+    protected List<String> token;
     private static final Set<String> tokensToIgnore;
     //protected static Tokenizer tokenizer = new Tokenizer();
     private static final StopWords sw = new StopWords(3);
+    /* bigram counts kept in memory while building, the rest are spilled to disk */
+    private static int maxBigrams = 1 << 21;
+    /* documents handed to a counting thread at a time */
+    private static final int CHUNK = 64;
 
     static {
         tokensToIgnore = new HashSet<>();
@@ -32,40 +55,84 @@ public class Dictionary implements Serializable {
 
     public Dictionary() {
         nGramSizes = new ArrayList<>();
-        documentFrequency = new TObjectIntHashMap<>();
+        documentFrequency = new TLongIntHashMap();
+        tokenId = new TObjectIntHashMap<>(10, 0.5f, -1);
+        token = new ArrayList<>();
         //tokenizer = new Tokenizer();
     }
 
-    public Dictionary(CorpusJSON corpus, int lowUnigrams, int highUnigrams, int lowBigrams, int highBigrams) {
-        nGramSizes = new ArrayList<>();
-        documentFrequency = new TObjectIntHashMap<>();
-        //tokenizer = new Tokenizer();
+    public Dictionary(Corpus corpus, int lowUnigrams, int highUnigrams, int lowBigrams, int highBigrams) {
+        this();
         addNGrams(corpus, 2, lowUnigrams, highUnigrams, lowBigrams, highBigrams);
         finalizeDictionary();
         System.out.println("Dictionary size: " + id.size());
         //showSorted();
     }
 
-    public TObjectIntHashMap<NGram> getDocumentFrequency() {
+    public static void setMaxBigrams(int max) {
+        maxBigrams = max;
+    }
+
+    public static long key(int first) {
+        return ((long) first << 32) | UNIGRAM;
+    }
+
+    public static long key(int first, int second) {
+        return ((long) first << 32) | second;
+    }
+
+    /* the key of the n-gram of token ids starting at i, -1 if a token is not in the vocabulary */
+    public static long key(int[] tokens, int i, int n) {
+        if (n == 1) {
+            return (tokens[i] < 0) ? -1 : key(tokens[i]);
+        }
+        return (tokens[i] < 0 || tokens[i + 1] < 0) ? -1 : key(tokens[i], tokens[i + 1]);
+    }
+
+    public static boolean isUnigram(long key) {
+        return (key & UNIGRAM) == UNIGRAM;
+    }
+
+    public TLongIntHashMap getDocumentFrequency() {
         return documentFrequency;
     }
 
-    public Map<NGram, Integer> getId() {
+    /* feature ids by n-gram key, -1 for n-grams not in the dictionary */
+    public TLongIntHashMap getId() {
         return id;
     }
 
+    public long getKey(int id) {
+        return ngram[id];
+    }
+
     public NGram getNgram(int id) {
-        return ngram.get(id);
+        return nGram(ngram[id]);
     }
 
     public String getString(int id) {
         String feat = "";
-        for (String s : ngram.get(id).getList()) {
+        for (String s : getNgram(id).getList()) {
             feat += s;
         }
         return feat;
     }
 
+    /* the tokens of an n-gram separated by spaces */
+    public String getText(long key) {
+        String first = token.get((int) (key >>> 32));
+        return isUnigram(key) ? first : first + " " + token.get((int) key);
+    }
+
+    private NGram nGram(long key) {
+        List<String> list = new ArrayList<>(2);
+        list.add(token.get((int) (key >>> 32)));
+        if (!isUnigram(key)) {
+            list.add(token.get((int) key));
+        }
+        return new NGram(list);
+    }
+
     public static Set<String> getTokensToIgnore() {
         return tokensToIgnore;
     }
@@ -79,17 +146,13 @@ public class Dictionary implements Serializable {
     }
 
     public void showStats() {
-        TObjectIntIterator iterator = documentFrequency.iterator();
+        TLongIterator iterator = documentFrequency.keySet().iterator();
         int unigrams = 0;
         int bigrams = 0;
         while (iterator.hasNext()) {
-            iterator.advance();
-            NGram ngram = (NGram) iterator.key();
-            int size = ngram.getList().size();
-            if (size == 1) {
+            if (isUnigram(iterator.next())) {
                 unigrams++;
-            }
-            if (size == 2) {
+            } else {
                 bigrams++;
             }
         }
@@ -98,12 +161,10 @@ public class Dictionary implements Serializable {
 
     public void showSorted() {
         TreeSet<WordFreq> sorted = new TreeSet<>();
-        TObjectIntIterator iterator = documentFrequency.iterator();
+        TLongIntIterator iterator = documentFrequency.iterator();
         while (iterator.hasNext()) {
             iterator.advance();
-            NGram ngram = (NGram) iterator.key();
-            int frequency = iterator.value();
-            WordFreq w = new WordFreq(ngram, frequency);
+            WordFreq w = new WordFreq(nGram(iterator.key()), iterator.value());
             sorted.add(w);
         }
         for (WordFreq w : sorted) {
@@ -112,133 +173,342 @@ public class Dictionary implements Serializable {
     }
 
     /*
-     * Returns the next document as one line of text
+     * Numbers the n-grams in the order of their keys
      */
     protected void finalizeDictionary() {
-        TObjectIntIterator<NGram> iterator;
-        id = new HashMap<>();
-        ngram = new HashMap<>();
-        iterator = documentFrequency.iterator();
-        int counter = 0;
-        while (iterator.hasNext()) {
-            iterator.advance();
-            id.put(iterator.key(), counter);
-            ngram.put(counter, iterator.key());
-            counter++;
+        ngram = documentFrequency.keys();
+        Arrays.sort(ngram);
+        id = new TLongIntHashMap(ngram.length, 0.5f, -1, -1);
+        for (int i = 0; i < ngram.length; i++) {
+            id.put(ngram[i], i);
         }
     }
 
+    /* the token ids of a line of space separated tokens, -1 for tokens not in the vocabulary */
+    protected int[] tokenIds(String line) {
+        String[] tokens = line.split(" ");
+        int[] ids = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            ids[i] = tokenId.get(tokens[i]);
+        }
+        return ids;
+    }
+
     /**
-     * Reads a document of space separated words
-     *
-     * @param text
+     * Adds the keys of the n-grams of every size of the dictionary in the
+     * sentences that consist of tokens of the vocabulary to ngrams
      */
-    protected Set<NGram> nGramsFromTokenSentences(List<String> lines, int n, Set<NGram> frequent) {
-        Set<NGram> ngrams = new HashSet<>();
+    protected void nGramsFromTokenSentences(List<String> lines, TLongHashSet ngrams) {
         for (String line : lines) {
-            String[] tokens = line.split(" ");
-            //for(byte b:tokens[0].getBytes()) System.out.println(b& 0xff);
-            
-	//System.out.println(Arrays.toString(tokens));
+            keys(tokenIds(line), nGramSizes, ngrams);
+        }
+    }
+
+    private static void keys(int[] tokens, List<Integer> sizes, TLongHashSet ngrams) {
+        for (int n : sizes) {
             for (int i = 0; i < tokens.length + 1 - n; i++) {
-                List<String> aList = new ArrayList<>();
-                for (int j = 0; j < n; j++) {
-                    aList.add(tokens[i + j]);
-                }
-                NGram ngram = new NGram(aList);
-                List<String> list = ngram.getList();
-                if (n > 1) {
-                    boolean skip = false;
-                    for (String token : list) {
-                        if (tokensToIgnore.contains(token)) {
-                            skip = true;
-                            break;
-                        }
-                    }
-                    if (skip == true) {
-                        continue;
-                    }
-                    //ommit ngrams that contain as subgrams, terms that have been pruned
-                    List<NGram> subgrams = ngram.getSubgrams();
-                    if (frequent.contains(subgrams.get(0)) && frequent.contains(subgrams.get(1))) {
-                        ngrams.add(ngram);
-                    }
-                } else {
-                    if (tokensToIgnore.contains(list.get(0))) {
-                        continue;
-                    }
-                    ngrams.add(ngram);
+                long key = key(tokens, i, n);
+                if (key != -1) {
+                    ngrams.add(key);
                 }
             }
         }
-        return ngrams;
     }
 
-    protected void addNGrams(Corpus corpus, int nGramSize, int unigramLower, int unigramUpper, int bigramLower, int bigramUpper) {
+    /* tokens that are never part of an n-gram: stopwords, numbers and ignored tokens */
+    private static boolean omitted(String token) {
+        return tokensToIgnore.contains(token) || sw.ommit(token);
+    }
+
+    /**
+     * Counts the uni- and bigrams of the corpus in a single pass, on the
+     * tokenizing threads. Each thread tokenizes chunks of documents and
+     * counts them into its own shard, with its own vocabulary. The shards
+     * are then merged: unigrams are summed over the joined vocabulary and
+     * pruned, and the bigrams of tokens of the remaining unigrams are split
+     * by key into partitions that are summed and pruned in parallel. The
+     * partitions are BigramCounters as well, so that at most about
+     * maxBigrams counts of the shards and as many of the partitions are in
+     * memory at once. This gives the same dictionary as counting the bigrams
+     * of the pruned unigrams in a second pass, with any number of threads.
+     */
+    protected void addNGrams(Corpus corpus, int nGramSize, int unigramLower, int unigramUpper,
+            final int bigramLower, final int bigramUpper) {
+        if (nGramSize > 2) {
+            throw new IllegalArgumentException("Only uni- and bigrams are supported");
+        }
         // System.out.println(new Date() + " Adding " + nGramSize + "-grams...");
         for (int i = 1; i <= nGramSize; i++) {
             nGramSizes.add(i);
         }
-        Set<NGram> oldDocumentFrequency = null;
-        Set<NGram> ngrams;
-        for (int i = 0; i < nGramSize; i++) {
-            int counter = 0;
-            Document doc;
-            List<String> lines;
+        final Shard[] shards = new Shard[TokenizingCorpus.getThreads()];
+        for (int s = 0; s < shards.length; s++) {
+            shards[s] = new Shard(Math.max(1, maxBigrams / shards.length));
+        }
+        count(corpus, shards, nGramSizes);
+
+        // the vocabulary of all shards with the document frequency of every token
+        TObjectIntHashMap<String> allIds = new TObjectIntHashMap<>(10, 0.5f, -1);
+        List<String> all = new ArrayList<>();
+        TIntArrayList unigrams = new TIntArrayList();
+        final int[][] ids = new int[shards.length][];
+        corpusSize = 0;
+        for (int s = 0; s < shards.length; s++) {
+            Shard shard = shards[s];
+            corpusSize += shard.documents;
+            ids[s] = new int[shard.token.size()];
+            for (int t = 0; t < ids[s].length; t++) {
+                String tok = shard.token.get(t);
+                int g = allIds.get(tok);
+                if (g == -1) {
+                    g = all.size();
+                    allIds.put(tok, g);
+                    all.add(tok);
+                    unigrams.add(0);
+                }
+                ids[s][t] = g;
+                unigrams.set(g, unigrams.get(g) + shard.unigrams.get(t));
+            }
+        }
+
+        // the vocabulary is reduced to the tokens of the frequent unigrams, in sorted order
+        List<String> kept = new ArrayList<>();
+        for (int g = 0; g < all.size(); g++) {
+            if (unigrams.get(g) >= unigramLower && unigrams.get(g) <= unigramUpper) {
+                kept.add(all.get(g));
+            }
+        }
+        Collections.sort(kept);
+        token = kept;
+        tokenId = new TObjectIntHashMap<>(kept.size(), 0.5f, -1);
+        for (int t = 0; t < kept.size(); t++) {
+            tokenId.put(kept.get(t), t);
+            documentFrequency.put(key(t), unigrams.get(allIds.get(kept.get(t))));
+        }
+        for (int[] shardIds : ids) {
+            for (int t = 0; t < shardIds.length; t++) {
+                shardIds[t] = tokenId.get(all.get(shardIds[t]));
+            }
+        }
+
+        if (shards.length == 1) {
+            // the counts of a single shard are already the totals, so they are pruned right away
+            final int[] shardIds = ids[0];
+            shards[0].bigrams.forEachEntry((key, frequency) -> {
+                int first = shardIds[(int) (key >>> 32)], second = shardIds[(int) key];
+                if (first != -1 && second != -1 && frequency >= bigramLower && frequency <= bigramUpper) {
+                    documentFrequency.put(key(first, second), frequency);
+                }
+                return true;
+            });
+            return;
+        }
+        // the shards are renumbered into counters by partition, which spill like the shards do
+        final int partitions = shards.length;
+        final BigramCounter[] counters = new BigramCounter[partitions];
+        for (int p = 0; p < partitions; p++) {
+            counters[p] = new BigramCounter(Math.max(1, maxBigrams / partitions));
+        }
+        for (int s = 0; s < shards.length; s++) {
+            final int[] shardIds = ids[s];
+            shards[s].bigrams.forEachEntry((key, frequency) -> {
+                int first = shardIds[(int) (key >>> 32)], second = shardIds[(int) key];
+                if (first != -1 && second != -1) {
+                    long k = key(first, second);
+                    counters[partition(k, partitions)].add(k, frequency);
+                }
+                return true;
+            });
+            shards[s] = null;
+        }
+        final TLongIntHashMap[] bigrams = new TLongIntHashMap[partitions];
+        parallel(partitions, p -> {
+            final TLongIntHashMap frequent = new TLongIntHashMap();
+            counters[p].forEachEntry((key, frequency) -> {
+                if (frequency >= bigramLower && frequency <= bigramUpper) {
+                    frequent.put(key, frequency);
+                }
+                return true;
+            });
+            counters[p] = null;
+            bigrams[p] = frequent;
+        });
+        for (TLongIntHashMap partition : bigrams) {
+            documentFrequency.putAll(partition);
+        }
+    }
+
+    private static int partition(long key, int partitions) {
+        return (int) (((key * 0x9e3779b97f4a7c15L) >>> 32) % partitions);
+    }
+
+    /* counts the documents of the corpus into the shards, one tokenizing thread each */
+    private static void count(Corpus corpus, final Shard[] shards, final List<Integer> sizes) {
+        if (shards.length == 1) {
             corpus.reset();
-            TObjectIntHashMap<NGram> currentDocumentFrequency = new TObjectIntHashMap<>();
+            Document doc;
             while ((doc = corpus.nextDocument()) != null) {
-                counter++;
-                lines = doc.getContentAsSentencesOfTokens(false);
-                ngrams = nGramsFromTokenSentences(lines, i + 1, oldDocumentFrequency);
-                for (NGram ngram : ngrams) {
-                    // remove numbers and stopwords
-                    boolean remove = false;
-                    for (String word : ngram.getList()) {
-                        if (sw.isStopWord(word) || sw.ommit(word)) {
-                            remove = true;
-                            break;
-                        }
-                    }
-                    if (remove) {
-                        continue;
-                    }
-                    if (currentDocumentFrequency.containsKey(ngram)) {
-                        currentDocumentFrequency.put(ngram, currentDocumentFrequency.get(ngram) + 1);
-                    } else {
-                        currentDocumentFrequency.put(ngram, 1);
+                shards[0].count(doc, sizes);
+            }
+            corpus.close();
+            return;
+        }
+        final BlockingQueue<List<Document>> queue = new ArrayBlockingQueue<>(2 * shards.length);
+        List<Future<?>> workers = new ArrayList<>();
+        for (final Shard shard : shards) {
+            workers.add(TokenizingCorpus.pool().submit(() -> {
+                List<Document> chunk;
+                while (!(chunk = queue.take()).isEmpty()) {
+                    for (Document doc : chunk) {
+                        shard.count(doc, sizes);
                     }
                 }
+                return null;
+            }));
+        }
+        try {
+            corpus.reset();
+            List<Document> chunk = new ArrayList<>(CHUNK);
+            Document doc;
+            while ((doc = corpus.nextDocument()) != null) {
+                chunk.add(doc);
+                if (chunk.size() == CHUNK) {
+                    put(queue, chunk, workers);
+                    chunk = new ArrayList<>(CHUNK);
+                }
+            }
+            corpus.close();
+            if (!chunk.isEmpty()) {
+                put(queue, chunk, workers);
+            }
+            for (Shard shard : shards) {
+                put(queue, Collections.<Document>emptyList(), workers);
             }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException ex) {
+            throw failure(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } finally {
+            // stops the other workers after a failure, they would wait for chunks forever
+            for (Future<?> worker : workers) {
+                worker.cancel(true);
+            }
+        }
+    }
 
-            corpusSize = counter;
-            //System.out.println(new Date() + " Found " + currentDocumentFrequency.size() + " " + (i + 1) + "-grams");
-            if (i == 0) {
-                prune(currentDocumentFrequency, unigramLower, unigramUpper);
-            } else {
-                prune(currentDocumentFrequency, bigramLower, bigramUpper);
+    /* queues a chunk, throwing the failure of a worker instead of waiting for it forever */
+    private static void put(BlockingQueue<List<Document>> queue, List<Document> chunk, List<Future<?>> workers)
+            throws InterruptedException, ExecutionException {
+        while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+            for (Future<?> worker : workers) {
+                if (worker.isDone()) {
+                    worker.get();
+                }
             }
+        }
+    }
+
+    /* the cause of a failed task, to be thrown unchecked */
+    private static RuntimeException failure(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return (cause instanceof RuntimeException) ? (RuntimeException) cause : new RuntimeException(cause);
+    }
+
+    /*
+     * runs task(0), ..., task(n - 1) on the tokenizing threads and waits for
+     * them; the first failure cancels the other tasks and is rethrown
+     */
+    private static void parallel(int n, final IntConsumer task) {
+        if (n == 1) {
+            task.accept(0);
+            return;
+        }
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            final int index = i;
+            tasks.add(TokenizingCorpus.pool().submit(() -> task.accept(index)));
+        }
+        try {
+            for (Future<?> t : tasks) {
+                t.get();
+            }
+        } catch (ExecutionException ex) {
+            throw failure(ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } finally {
+            for (Future<?> t : tasks) {
+                t.cancel(true);
+            }
+        }
+    }
+
+    /* the document frequencies of the documents counted by one thread, over its own vocabulary */
+    private static class Shard {
 
-            //System.out.println(new Date() + " Pruned to " + currentDocumentFrequency.size() + " " + (i + 1) + "-grams");
-            oldDocumentFrequency = currentDocumentFrequency.keySet();
-            TObjectIntIterator<NGram> entries = currentDocumentFrequency.iterator();
-            while (entries.hasNext()) {
-                entries.advance();
-                documentFrequency.put(entries.key(), entries.value());
+        final TObjectIntHashMap<String> tokenId = new TObjectIntHashMap<>(10, 0.5f, -1);
+        final List<String> token = new ArrayList<>();
+        final TIntArrayList unigrams = new TIntArrayList();
+        final BigramCounter bigrams;
+        final TLongHashSet ngrams = new TLongHashSet();
+        int documents = 0;
+
+        Shard(int maxBigrams) {
+            bigrams = new BigramCounter(maxBigrams);
+        }
+
+        void count(Document doc, List<Integer> sizes) {
+            documents++;
+            ngrams.clear();
+            for (String line : doc.getContentAsSentencesOfTokens(false)) {
+                keys(tokenIds(line), sizes, ngrams);
+            }
+            TLongIterator keys = ngrams.iterator();
+            while (keys.hasNext()) {
+                long key = keys.next();
+                if (isUnigram(key)) {
+                    int t = (int) (key >>> 32);
+                    unigrams.set(t, unigrams.get(t) + 1);
+                } else {
+                    bigrams.increment(key);
+                }
             }
         }
-        // iterate currentDocumentFrequency and add to documentFrequency
 
+        /* the token ids of a line, adding new tokens to the vocabulary and -1 for omitted ones */
+        int[] tokenIds(String line) {
+            String[] tokens = line.split(" ");
+            int[] ids = new int[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                String t = tokens[i];
+                if (!tokenId.containsKey(t)) {
+                    if (omitted(t)) {
+                        tokenId.put(t, -1);
+                    } else {
+                        tokenId.put(t, token.size());
+                        token.add(t);
+                        unigrams.add(0);
+                    }
+                }
+                ids[i] = tokenId.get(t);
+            }
+            return ids;
+        }
     }
 
-    public final void prune(TObjectIntHashMap<NGram> map, int thresholdLower, int thresholdUpper) {
-        TObjectIntIterator<NGram> entries = map.iterator();
+    public final void prune(TLongIntHashMap map, int thresholdLower, int thresholdUpper) {
+        TLongIntIterator entries = map.iterator();
         while (entries.hasNext()) {
             entries.advance();
-            if (entries.value() < thresholdLower) {
-                entries.remove();
-            }
-            if (entries.value() > thresholdUpper) {
+            if (entries.value() < thresholdLower || entries.value() > thresholdUpper) {
                 entries.remove();
             }
         }
@@ -1,16 +1,9 @@
 package gr.auth.csd.mlkd.preprocessing;
 
-import edu.stanford.nlp.ling.CoreAnnotations;
-import edu.stanford.nlp.ling.CoreLabel;
-import edu.stanford.nlp.pipeline.Annotation;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
-import edu.stanford.nlp.util.CoreMap;
-import edu.stanford.nlp.util.logging.RedwoodConfiguration;
 import gnu.trove.set.hash.THashSet;
 import gr.auth.csd.mlkd.utils.Utils;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
 
 /**
  *
@@ -19,7 +12,10 @@ import java.util.Properties;
  */
 public class Document implements Comparable  {
 
-    private static final StanfordCoreNLP pipeline;
+    /* one tokenizer per thread, so that documents can be tokenized concurrently */
+    private static final ThreadLocal<Tokenizer> tokenizer = new ThreadLocal<>();
+    private static volatile String tokenizerName = Tokenizer.CORENLP;
+    private static volatile TokenCache tokenCache = null;
     private String pmid;
     private String title="";
     private String abs="";
@@ -28,16 +24,37 @@ public class Document implements Comparable  {
     private String body="";
     private String refs;
     private THashSet<String> labels = new THashSet<>();
+    private List<String> sentences = null;
     //private static StopWords sw;
 
-    static {
-        Properties props = new Properties();
-        //props.put("annotators", "tokenize, cleanxml, ssplit, pos, lemma");
-        props.put("annotators", "tokenize, ssplit");
-        RedwoodConfiguration.empty().capture(System.err).apply();
-        pipeline = new StanfordCoreNLP(props);
-        RedwoodConfiguration.current().clear().apply();
-        //sw = new StopWords();
+    /* the tokenizer of all documents, one of Tokenizer.CORENLP and Tokenizer.FAST */
+    public static void setTokenizer(String name) {
+        if (!name.equals(Tokenizer.CORENLP) && !name.equals(Tokenizer.FAST)) {
+            throw new IllegalArgumentException("Unknown tokenizer: " + name);
+        }
+        tokenizerName = name;
+    }
+
+    public static String getTokenizer() {
+        return tokenizerName;
+    }
+
+    /* the cache of tokenized documents, null for none */
+    public static void setTokenCache(TokenCache cache) {
+        tokenCache = cache;
+    }
+
+    public static TokenCache getTokenCache() {
+        return tokenCache;
+    }
+
+    private static Tokenizer tokenizer() {
+        Tokenizer t = tokenizer.get();
+        if (t == null || !t.name().equals(tokenizerName)) {
+            t = Tokenizer.create(tokenizerName);
+            tokenizer.set(t);
+        }
+        return t;
     }
 
     public Document() {        
@@ -83,6 +100,18 @@ public class Document implements Comparable  {
         labels = aSetOfLabels; 
     }
     
+    /* the already tokenized content, e.g. read from a CorpusBinary */
+    public void setSentences(List<String> lines) {
+        sentences = lines;
+    }
+
+    /* tokenizes the content once, for later getContentAsSentencesOfTokens calls */
+    public void tokenize() {
+        if (sentences == null) {
+            sentences = getContentAsSentencesOfTokens(false);
+        }
+    }
+
     public THashSet<String> getLabels() {
         return labels;
     }
@@ -100,32 +129,34 @@ public class Document implements Comparable  {
     }
 
     public List<String> getContentAsSentencesOfTokens(boolean ignoreNumbers) {
+        if (sentences != null) {
+            return (ignoreNumbers) ? withoutNumbers(sentences) : sentences;
+        }
         StringBuilder sb = new StringBuilder();
         sb.append(title).append(abs).append(body);
-        Annotation document = new Annotation(sb.toString());
-        pipeline.annotate(document);
+        String text = sb.toString();
+        TokenCache cache = (pmid != null) ? tokenCache : null;
+        long hash = 0;
+        List<String> lines = null;
+        if (cache != null) {
+            hash = TokenCache.hash(tokenizerName, text);
+            lines = cache.get(pmid, hash);
+        }
+        if (lines == null) {
+            lines = tokenizer().tokenize(text);
+            if (cache != null) {
+                cache.put(pmid, hash, lines);
+            }
+        }
+        return (ignoreNumbers) ? withoutNumbers(lines) : lines;
+    }
 
-        //* Stanford full
-        List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+    private static List<String> withoutNumbers(List<String> sentences) {
         List<String> lines = new ArrayList<>();
-        StringBuilder builder;
-        for (CoreMap sentence : sentences) {
-            // traversing the words in the current sentence
-            // a CoreLabel is a CoreMap with additional token-specific methods
-            builder = new StringBuilder();
-            for (CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)) {
-                String word = token.get(CoreAnnotations.TextAnnotation.class);
-                //* replace numbers
-                if (Utils.isNumber(word)) {
-                   if(ignoreNumbers) word = "";
-//                    else word = "NumNUMNum";
-                }
-                //if(!word.matches("\\d*\\.?\\d*-?\\d*\\.?\\d*")&&!(word.matches("\\+\\d*"))) {
-                    builder.append(word.toLowerCase()).append(" ");
-                    
-                //}
-                //String lemma = token.get(CoreAnnotations.LemmaAnnotation.class);
-                //String pos = token.get(CoreAnnotations.PartOfSpeechAnnotation.class);
+        for (String sentence : sentences) {
+            StringBuilder builder = new StringBuilder();
+            for (String word : sentence.split(" ")) {
+                builder.append(Utils.isNumber(word) ? "" : word).append(" ");
             }
             lines.add(builder.toString());
         }
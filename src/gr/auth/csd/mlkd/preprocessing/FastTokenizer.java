@@ -0,0 +1,466 @@
+package gr.auth.csd.mlkd.preprocessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A rule-based tokenizer and sentence splitter approximating the PTB
+ * tokenization of CoreNLP's "tokenize, ssplit" annotators, without building
+ * an annotation per document. Words are split at whitespace; punctuation is
+ * split off their ends and at symbols inside them, except for the hyphens,
+ * periods, slashes etc. that join words and numbers. Periods stay on
+ * abbreviations and initialisms, clitics are split as in PTB (do n't, smith
+ * 's), brackets and quotes get their PTB escapes. Sentences end at a period,
+ * at a run of ! and ?, and after any closing quotes or brackets that follow.
+ * The abbreviation lists and the words that start a sentence after an
+ * initial are those CoreNLP 3.3 behaves on.
+ *
+ * The text is scanned once in a reused buffer and tokens are appended
+ * lowercased to the current sentence, so the only strings built are the
+ * sentences.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class FastTokenizer implements Tokenizer {
+
+    /* abbreviations that keep their period */
+    private static final Set<String> TITLES = set("mr", "mrs", "ms", "dr", "drs", "prof", "profs", "st", "ste",
+            "messrs", "mme", "mlle", "gen", "rep", "reps", "sen", "gov", "lt", "col", "capt", "sgt", "adm", "rev",
+            "hon", "maj", "cpl", "pvt", "brig", "ave", "pres", "det", "vs", "cf");
+    /* abbreviations that also end the sentence before a capitalized word, with an extra period */
+    private static final Set<String> FINAL = set("jan", "feb", "mar", "apr", "jun", "jul", "aug", "sep", "sept",
+            "oct", "nov", "dec", "mon", "tue", "wed", "thu", "fri", "calif", "mass", "conn", "fla", "ill", "mich",
+            "pa", "va", "ariz", "tenn", "md", "la", "ala", "colo", "ind", "ky", "minn", "mo", "nev", "okla", "ore",
+            "wash", "wis", "inc", "co", "cos", "corp", "ltd", "plc", "dept", "univ", "intl", "assn", "jr", "sr",
+            "bros", "esq", "etc", "al", "seq", "est", "tel", "ext", "sq", "rd", "blvd");
+    /* of FINAL, the ones that are abbreviations only when capitalized */
+    private static final Set<String> WORDS = set("mass", "ill", "ore", "wash");
+    /* abbreviations that keep their period before a number */
+    private static final Set<String> NUMBERED = set("no", "nos", "pp", "fig", "figs", "ca");
+    /* words after which an initial, or an initialism, ends the sentence */
+    private static final Set<String> STARTERS = set("the", "this", "that", "these", "then", "there", "they",
+            "we", "it", "in", "at", "as", "an", "a", "but", "so", "if", "when", "while", "however", "since",
+            "after", "our", "their", "he", "she", "her", "here", "yet", "some", "many", "one", "what", "you",
+            "about", "now", "once", "additionally");
+
+    private char[] text = new char[1024];
+    private int length;
+    private final StringBuilder sentence = new StringBuilder();
+    private List<String> sentences;
+    private boolean ended;
+    /* bounds of the punctuation split off the end of the current word, outermost first */
+    private int[] trailing = new int[32];
+    private int numTrailing;
+    /* the period kept on an abbreviation ending the current word, or -1 */
+    private int kept;
+    private boolean extraPeriod;
+
+    private static Set<String> set(String... words) {
+        return new HashSet<>(Arrays.asList(words));
+    }
+
+    @Override
+    public List<String> tokenize(String input) {
+        length = input.length();
+        if (text.length < length) {
+            text = new char[Math.max(length, 2 * text.length)];
+        }
+        input.getChars(0, length, text, 0);
+        sentences = new ArrayList<>();
+        sentence.setLength(0);
+        ended = false;
+        int i = 0;
+        while (i < length) {
+            if (isSpace(text[i])) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && !isSpace(text[i])) {
+                i++;
+            }
+            word(start, i);
+        }
+        if (sentence.length() > 0) {
+            sentences.add(sentence.toString());
+        }
+        return sentences;
+    }
+
+    @Override
+    public String name() {
+        return FAST;
+    }
+
+    private static boolean isSpace(char c) {
+        return Character.isWhitespace(c) || c == '\u00a0';
+    }
+
+    private static boolean isApostrophe(char c) {
+        return c == '\'' || c == '\u2019';
+    }
+
+    /* whether a quote at i opens: it is followed by a letter, or by a digit or $ for double quotes */
+    private boolean opens(int i) {
+        if (i + 1 == length) {
+            return false;
+        }
+        char next = text[i + 1];
+        return Character.isLetter(next) || text[i] == '"' && (Character.isDigit(next) || next == '$');
+    }
+
+    /* a whitespace delimited word [s, e) */
+    private void word(int s, int e) {
+        int end = e;
+        while (s < e && isOpening(s, e)) {
+            punctuation(s, s + 1);
+            s++;
+        }
+        numTrailing = 0;
+        kept = -1;
+        extraPeriod = false;
+        while (e > s) {
+            char c = text[e - 1];
+            int from = e - 1;
+            if (c == '.') {
+                while (from > s && text[from - 1] == '.') {
+                    from--;
+                }
+                if (e - from == 1 && keepsPeriod(s, e, end)) {
+                    kept = from;
+                    break;
+                }
+                if (e - from == 2) {
+                    // two periods are two tokens, an ellipsis is one
+                    push(from, from + 1);
+                    from++;
+                }
+            } else if (c == '!' || c == '?') {
+                while (from > s && (text[from - 1] == '!' || text[from - 1] == '?')) {
+                    from--;
+                }
+            } else if (!isClosing(c)) {
+                break;
+            }
+            push(from, e);
+            e = from;
+        }
+        middle(s, e);
+        if (extraPeriod) {
+            token(".");
+        }
+        for (int t = numTrailing - 1; t >= 0; t--) {
+            punctuation(trailing[2 * t], trailing[2 * t + 1]);
+        }
+    }
+
+    private void push(int from, int to) {
+        if (numTrailing == trailing.length / 2) {
+            trailing = Arrays.copyOf(trailing, 2 * trailing.length);
+        }
+        trailing[2 * numTrailing] = from;
+        trailing[2 * numTrailing + 1] = to;
+        numTrailing++;
+    }
+
+    private boolean isOpening(int s, int e) {
+        switch (text[s]) {
+            case '(': case '[': case '{': case '"': case '\u201c': case '\u2018': case '`': case '$':
+                return true;
+            case '\'': case '\u2019':
+                // not a clitic standing alone
+                return s + 1 < e && Character.isLetter(text[s + 1]) && !isClitic(s, e);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isClosing(char c) {
+        switch (c) {
+            case ')': case ']': case '}': case '"': case '\u201d': case '\'': case '\u2019': case '`':
+            case ',': case ';': case ':': case '%':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /* '90s */
+    private boolean isDecade(int s, int e) {
+        return s + 3 < e && Character.isDigit(text[s + 1]) && Character.isDigit(text[s + 2])
+                && (text[s + 3] == 's' || text[s + 3] == 'S');
+    }
+
+    private boolean isClitic(int s, int e) {
+        int n = e - s;
+        while (n > 1 && (isClosing(text[s + n - 1]) || text[s + n - 1] == '.')) {
+            n--;
+        }
+        if (n == 2) {
+            char c = Character.toLowerCase(text[s + 1]);
+            return c == 's' || c == 'm' || c == 'd';
+        }
+        if (n == 3) {
+            char c = Character.toLowerCase(text[s + 1]), d = Character.toLowerCase(text[s + 2]);
+            return (c == 'r' || c == 'v') && d == 'e' || c == 'l' && d == 'l';
+        }
+        return false;
+    }
+
+    /**
+     * Whether the period ending [s, e) stays on the word, where end is the
+     * end of the whitespace delimited word. Sets extraPeriod for the
+     * abbreviations that also end the sentence.
+     */
+    private boolean keepsPeriod(int s, int e, int end) {
+        int n = e - 1 - s;
+        if (n == 0) {
+            return false;
+        }
+        int next = end;
+        while (next < length && isSpace(text[next])) {
+            next++;
+        }
+        boolean capitalized = next < length && Character.isUpperCase(text[next]);
+        if (n == 1) {
+            return Character.isLetter(text[s]) && !(capitalized && isStarter(next));
+        }
+        // initialisms: u.s. e.g. ph.d.
+        boolean initialism = true, dotted = false;
+        int segment = 0;
+        for (int i = s; i < e - 1 && initialism; i++) {
+            if (text[i] == '.') {
+                initialism = segment > 0;
+                dotted = true;
+                segment = 0;
+            } else {
+                initialism = Character.isLetter(text[i]) && ++segment <= 2;
+            }
+        }
+        if (initialism && dotted) {
+            extraPeriod = capitalized && isStarter(next);
+            return true;
+        }
+        if (n > 5) {
+            return false;
+        }
+        String w = new String(text, s, n).toLowerCase();
+        if (TITLES.contains(w)) {
+            return true;
+        }
+        if (FINAL.contains(w) && !(WORDS.contains(w) && Character.isLowerCase(text[s]))) {
+            extraPeriod = next == length || capitalized;
+            return true;
+        }
+        return NUMBERED.contains(w) && next < length && Character.isDigit(text[next]);
+    }
+
+    private boolean isStarter(int i) {
+        int to = i;
+        while (to < length && Character.isLetter(text[to])) {
+            to++;
+        }
+        return to - i <= 12 && STARTERS.contains(new String(text, i, to - i).toLowerCase());
+    }
+
+    /* the word without its leading and trailing punctuation, split at symbols */
+    private void middle(int s, int e) {
+        int start = s;
+        boolean slash = false, underscore = false, numeric = true;
+        for (int i = s; i < e; i++) {
+            char c = text[i];
+            if (Character.isLetterOrDigit(c)) {
+                numeric &= Character.isDigit(c);
+                continue;
+            }
+            char before = (i > start) ? text[i - 1] : ' ', after = (i + 1 < e) ? text[i + 1] : ' ';
+            boolean joins;
+            switch (c) {
+                case '-':
+                    joins = Character.isLetterOrDigit(before) && Character.isLetterOrDigit(after)
+                            || i == start && Character.isDigit(after);
+                    break;
+                case '.':
+                    joins = i == kept || !slash && !underscore && Character.isLetterOrDigit(before)
+                            && Character.isLetterOrDigit(after) && !(numeric && Character.isLetter(after));
+                    break;
+                case '\'': case '\u2019':
+                    joins = Character.isLetter(before) && Character.isLetter(after)
+                            || i == start && (isDecade(i, e) || isClitic(i, e));
+                    break;
+                case ',':
+                    joins = Character.isDigit(before) && Character.isDigit(after);
+                    break;
+                case ':':
+                    joins = Character.isDigit(before) && Character.isDigit(after) || after == '/';
+                    break;
+                case '/':
+                    joins = Character.isLetterOrDigit(before) && Character.isLetterOrDigit(after);
+                    slash |= joins;
+                    break;
+                case '_':
+                    joins = !slash && Character.isLetterOrDigit(before) && Character.isLetterOrDigit(after);
+                    underscore |= joins;
+                    break;
+                case '&':
+                    joins = Character.isLetterOrDigit(before) && Character.isLetterOrDigit(after);
+                    break;
+                case '@':
+                    joins = true;
+                    break;
+                case '#':
+                    joins = i == start && Character.isLetter(after);
+                    break;
+                default:
+                    int type = Character.getType(c);
+                    joins = type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK;
+            }
+            if (joins) {
+                continue;
+            }
+            clitics(start, i);
+            int to = i + 1;
+            if (c == '-') {
+                while (to < e && text[to] == '-') {
+                    to++;
+                }
+                if (to - i > 1) {
+                    token("--");
+                } else {
+                    token(i, to);
+                }
+            } else if (c == '<' && (to = tag(i, e)) > i) {
+                token(i, to);
+            } else {
+                to = i + 1;
+                punctuation(i, to);
+            }
+            start = to;
+            i = to - 1;
+            slash = underscore = false;
+            numeric = true;
+        }
+        clitics(start, e);
+    }
+
+    /* the end of an SGML tag such as <cr> or </b> starting at i, or -1 */
+    private int tag(int i, int e) {
+        int j = i + 1;
+        if (j < e && text[j] == '/') {
+            j++;
+        }
+        if (j == e || !Character.isLetter(text[j])) {
+            return -1;
+        }
+        while (j < e && (Character.isLetterOrDigit(text[j]) || text[j] == '-' || text[j] == '_')) {
+            j++;
+        }
+        return (j < e && text[j] == '>') ? j + 1 : -1;
+    }
+
+    /* splits the PTB clitics off the end of [s, e) */
+    private void clitics(int s, int e) {
+        int n = e - s;
+        int split = e;
+        if (n > 3 && isApostrophe(text[e - 2]) && (text[e - 3] == 'n' || text[e - 3] == 'N')
+                && (text[e - 1] == 't' || text[e - 1] == 'T')) {
+            split = e - 3;
+        } else if (n > 2 && isApostrophe(text[e - 2])) {
+            char c = Character.toLowerCase(text[e - 1]);
+            if (c == 's' || c == 'm' || c == 'd') {
+                split = e - 2;
+            }
+        } else if (n > 3 && isApostrophe(text[e - 3])) {
+            char c = Character.toLowerCase(text[e - 2]), d = Character.toLowerCase(text[e - 1]);
+            if ((c == 'r' || c == 'v') && d == 'e' || c == 'l' && d == 'l') {
+                split = e - 3;
+            }
+        } else if (n == 6 && is(s, e, "cannot")) {
+            split = s + 3;
+        } else if (n == 5 && (is(s, e, "gonna") || is(s, e, "gotta") || is(s, e, "wanna")
+                || is(s, e, "gimme") || is(s, e, "lemme"))) {
+            split = s + 3;
+        }
+        token(s, split);
+        token(split, e);
+    }
+
+    private boolean is(int s, int e, String word) {
+        for (int i = s; i < e; i++) {
+            if (Character.toLowerCase(text[i]) != word.charAt(i - s)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* punctuation [from, to), with the PTB escapes of single brackets and quotes */
+    private void punctuation(int from, int to) {
+        String escaped = (to - from == 1) ? escape(from) : null;
+        if (escaped != null) {
+            token(escaped);
+        } else {
+            token(from, to);
+        }
+    }
+
+    private String escape(int i) {
+        switch (text[i]) {
+            case '(': return "-lrb-";
+            case ')': return "-rrb-";
+            case '[': return "-lsb-";
+            case ']': return "-rsb-";
+            case '{': return "-lcb-";
+            case '}': return "-rcb-";
+            case '"': return opens(i) ? "``" : "''";
+            case '\'': case '\u2019': return opens(i) ? "`" : "'";
+            case '\u201c': return "``";
+            case '\u201d': return "''";
+            case '\u2018': case '`': return "`";
+            case '\u00a3': return "#";
+            case '\u00bd': return "1/2";
+            case '\u00bc': return "1/4";
+            case '\u00be': return "3/4";
+            default: return null;
+        }
+    }
+
+    private static boolean isCloser(String token) {
+        return token.equals("''") || token.equals("'") || token.equals("-rrb-") || token.equals("-rsb-")
+                || token.equals("-rcb-");
+    }
+
+    private void token(String token) {
+        if (ended && !isCloser(token)) {
+            newSentence();
+        }
+        sentence.append(token).append(' ');
+        ended |= token.equals(".");
+    }
+
+    private void token(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        if (ended) {
+            newSentence();
+        }
+        boolean boundary = true;
+        for (int i = from; i < to; i++) {
+            char c = text[i];
+            sentence.append(Character.toLowerCase(c));
+            boundary &= (c == '!' || c == '?' || c == '.' && to - from == 1);
+        }
+        sentence.append(' ');
+        ended = boundary;
+    }
+
+    private void newSentence() {
+        sentences.add(sentence.toString());
+        sentence.setLength(0);
+        ended = false;
+    }
+}
@@ -4,8 +4,6 @@ package gr.auth.csd.mlkd.preprocessing;
 import gr.auth.csd.mlkd.preprocessing.Dictionary;
 import gr.auth.csd.mlkd.preprocessing.Document;
 import gr.auth.csd.mlkd.preprocessing.Labels;
-import gr.auth.csd.mlkd.preprocessing.NGram;
-import gr.auth.csd.mlkd.utils.Utils;
 import org.apache.commons.lang3.text.WordUtils;
 /**
  *
@@ -27,10 +25,10 @@ public abstract class FeatureScoring {
         corpusSize = dictionary.getCorpusSize();
         this.zoning = zoning;
     }
-    public abstract double fsMethod(NGram feature, Document doc, int wf, Labels labels);
-    protected double zoning(NGram feature, Document doc, double wf, Labels labels) {
+    public abstract double fsMethod(long feature, Document doc, int wf, Labels labels);
+    protected double zoning(long feature, Document doc, double wf, Labels labels) {
         double wf_temp = wf;
-        String token = Utils.concatenateArrayOfStrings(feature.getList()).toLowerCase();
+        String token = dictionary.getText(feature).toLowerCase();
         String title = doc.getTitle().toLowerCase();
         String [] titletokens = title.split(" ");
         for(String tok:titletokens) {
@@ -44,10 +44,20 @@ public class Labels implements Serializable {
         Document document;
         Set<String> labels = new HashSet<>();
         positiveInstances = new TObjectIntHashMap<>();
-        corpus.reset();
-        while ((document = corpus.nextDocument()) != null) {
-            labels.addAll(document.getLabels());
-            for (String l : document.getLabels()) positiveInstances.adjustOrPutValue(l, 1, 1);
+        corpus = corpus.projection(Corpus.LABELS);
+        if (corpus instanceof CorpusJSONL) {
+            ((CorpusJSONL) corpus).forEachDocument(Runtime.getRuntime().availableProcessors(), doc -> {
+                synchronized (labels) {
+                    labels.addAll(doc.getLabels());
+                    for (String l : doc.getLabels()) positiveInstances.adjustOrPutValue(l, 1, 1);
+                }
+            });
+        } else {
+            corpus.reset();
+            while ((document = corpus.nextDocument()) != null) {
+                labels.addAll(document.getLabels());
+                for (String l : document.getLabels()) positiveInstances.adjustOrPutValue(l, 1, 1);
+            }
         }
 
         indexOfLabel = new HashMap<>();
@@ -69,6 +79,15 @@ public class Labels implements Serializable {
     }
 
     public Labels(Set<String> labels) {
+        this(labels, true);
+    }
+
+    /* the labels of a stored hierarchy node, without logging their number */
+    public static Labels quiet(Set<String> labels) {
+        return new Labels(labels, false);
+    }
+
+    private Labels(Set<String> labels, boolean verbose) {
         positiveInstances = new TObjectIntHashMap<>();
         indexOfLabel = new HashMap<>();
         labelOfIndex = new HashMap<>();
@@ -80,7 +99,41 @@ public class Labels implements Serializable {
             labelOfIndex.put(index, label);
             index++;
         }
-        System.out.printf("%tc: Found %d labels.%n", new Date(), labels.size());
+        if (verbose) {
+            System.out.printf("%tc: Found %d labels.%n", new Date(), labels.size());
+        }
+    }
+
+    /**
+     * Indexes the labels of the corpus that are not known yet, after the
+     * existing ones so that their indices do not change, and recounts the
+     * positive instances of every label.
+     *
+     * @return the indices of the new labels
+     */
+    public TIntHashSet update(Corpus corpus) {
+        TIntHashSet added = new TIntHashSet();
+        int index = 0;
+        for (int i : labelOfIndex.keySet()) {
+            index = Math.max(index, i);
+        }
+        positiveInstances = new TObjectIntHashMap<>();
+        Document document;
+        corpus = corpus.projection(Corpus.LABELS);
+        corpus.reset();
+        while ((document = corpus.nextDocument()) != null) {
+            for (String l : document.getLabels()) {
+                positiveInstances.adjustOrPutValue(l, 1, 1);
+                if (!indexOfLabel.containsKey(l)) {
+                    index++;
+                    indexOfLabel.put(l, index);
+                    labelOfIndex.put(index, l);
+                    added.add(index);
+                }
+            }
+        }
+        System.out.printf("%tc: Found %d new labels.%n", new Date(), added.size());
+        return added;
     }
 
     public int getIndex(String label) {
@@ -198,6 +251,7 @@ public class Labels implements Serializable {
     public static int positiveInstancesInCorpus(Corpus c, Set<String> labelSet) {
         int positiveInstances = 0;
         Document doc;
+        c = c.projection(Corpus.LABELS);
         c.reset();
         while ((doc = c.nextDocument()) != null) {
             TObjectHashIterator<String> it = doc.getLabels().iterator();
@@ -0,0 +1,141 @@
+package gr.auth.csd.mlkd.preprocessing;
+
+import gnu.trove.iterator.TLongIntIterator;
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.hash.TLongHashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A subset of a global dictionary with its own compact feature ids. The
+ * features array maps every local id to the id of the feature in the global
+ * dictionary. Document frequencies and the corpus size are shared with the
+ * global dictionary, as is its vocabulary, so features are weighted exactly
+ * as before.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class NodeDictionary extends Dictionary {
+
+    static final long serialVersionUID = 2871406583326410937L;
+    private final int[] features;
+
+    public NodeDictionary(Dictionary global, int[] features) {
+        this.features = features;
+        documentFrequency = global.getDocumentFrequency();
+        nGramSizes = global.getNGramSizes();
+        corpusSize = global.getCorpusSize();
+        tokenId = global.tokenId;
+        token = global.token;
+        id = new TLongIntHashMap(features.length, 0.5f, -1, -1);
+        ngram = new long[features.length];
+        for (int i = 0; i < features.length; i++) {
+            ngram[i] = global.getKey(features[i]);
+            id.put(ngram[i], i);
+        }
+    }
+
+    public int[] getFeatures() {
+        return features;
+    }
+
+    /**
+     * Selects the features of a node from the documents of its training
+     * corpus. Features that appear in fewer than minDf of these documents
+     * are dropped. The rest are ranked by their document frequency in the
+     * corpus ("df") or by their best chi-square score over the labels of the
+     * corpus ("chi2"), and the maxFeatures best are kept (all if
+     * maxFeatures is 0).
+     */
+    public static NodeDictionary select(Dictionary global, Corpus corpus, Labels labels, String method,
+            int minDf, int maxFeatures) {
+        boolean chi2 = "chi2".equals(method);
+        TLongIntHashMap df = new TLongIntHashMap();
+        TLongObjectHashMap<TIntIntHashMap> labelDf = new TLongObjectHashMap<>();
+        TIntIntHashMap labelDocs = new TIntIntHashMap();
+        TLongHashSet ngrams = new TLongHashSet();
+        int docs = 0;
+        Document doc;
+        corpus.reset();
+        while ((doc = corpus.nextDocument()) != null) {
+            docs++;
+            List<String> lines = doc.getContentAsSentencesOfTokens(false);
+            ngrams.clear();
+            global.nGramsFromTokenSentences(lines, ngrams);
+            List<Integer> docLabels = new ArrayList<>();
+            if (chi2) {
+                for (String label : doc.getLabels()) {
+                    int index = labels.getIndex(label);
+                    if (index != -1) {
+                        docLabels.add(index);
+                        labelDocs.adjustOrPutValue(index, 1, 1);
+                    }
+                }
+            }
+            TLongIterator keys = ngrams.iterator();
+            while (keys.hasNext()) {
+                long g = keys.next();
+                if (!global.getId().containsKey(g)) {
+                    continue;
+                }
+                df.adjustOrPutValue(g, 1, 1);
+                if (chi2) {
+                    TIntIntHashMap counts = labelDf.get(g);
+                    if (counts == null) {
+                        counts = new TIntIntHashMap();
+                        labelDf.put(g, counts);
+                    }
+                    for (int index : docLabels) {
+                        counts.adjustOrPutValue(index, 1, 1);
+                    }
+                }
+            }
+        }
+
+        List<Integer> candidates = new ArrayList<>();
+        final TIntDoubleHashMap score = new TIntDoubleHashMap();
+        TLongIntIterator it = df.iterator();
+        while (it.hasNext()) {
+            it.advance();
+            if (it.value() < minDf) {
+                continue;
+            }
+            int g = global.getId().get(it.key());
+            candidates.add(g);
+            score.put(g, chi2 ? chiSquare(it.value(), labelDf.get(it.key()), labelDocs, docs) : it.value());
+        }
+        if (maxFeatures > 0 && candidates.size() > maxFeatures) {
+            candidates.sort((a, b) -> {
+                int c = Double.compare(score.get(b), score.get(a));
+                return (c != 0) ? c : Integer.compare(a, b);
+            });
+            candidates = candidates.subList(0, maxFeatures);
+        }
+        int[] selected = new int[candidates.size()];
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = candidates.get(i);
+        }
+        Arrays.sort(selected);
+        return new NodeDictionary(global, selected);
+    }
+
+    private static double chiSquare(int df, TIntIntHashMap counts, TIntIntHashMap labelDocs, int docs) {
+        double best = 0;
+        for (int label : labelDocs.keys()) {
+            double a = counts.get(label);
+            double b = df - a;
+            double c = labelDocs.get(label) - a;
+            double d = docs - a - b - c;
+            double denominator = (a + c) * (b + d) * (a + b) * (c + d);
+            if (denominator > 0) {
+                best = Math.max(best, docs * (a * d - b * c) * (a * d - b * c) / denominator);
+            }
+        }
+        return best;
+    }
+}
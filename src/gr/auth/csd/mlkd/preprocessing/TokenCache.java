@@ -0,0 +1,338 @@
+package gr.auth.csd.mlkd.preprocessing;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The tokenized content of documents, kept on disk across runs. Documents
+ * are looked up by id and by a hash of their text and of the tokenizer, so
+ * that a document whose text or tokenizer changed is tokenized again.
+ *
+ * The file is a log of records: a token record gives the next token id its
+ * string, a document record holds the id, the hash and the sentences as
+ * token ids. On opening, the log is scanned once for the token table and the
+ * offset of the last record of every id; new documents are appended. A
+ * record cut short, e.g. by a killed run, is truncated on the next opening.
+ * The file is locked while open, so a second process sharing it (such as a
+ * Homer worker) runs without the cache.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class TokenCache {
+
+    private static final int MAGIC = 0x544f4b43;
+    private static final int VERSION = 1;
+    private static final byte TOKEN = 1;
+    private static final byte DOCUMENT = 2;
+
+    private final String file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private FileLock lock;
+    private DataOutputStream out;
+    /* bytes in the file, of which the first flushed are on disk */
+    private long length;
+    private long flushed;
+    private final List<String> tokens = new ArrayList<>();
+    private final TObjectIntHashMap<String> tokenIds = new TObjectIntHashMap<>();
+    private final TObjectLongHashMap<String> offsets = new TObjectLongHashMap<>();
+    private final TObjectLongHashMap<String> hashes = new TObjectLongHashMap<>();
+    private long hits = 0;
+    private long misses = 0;
+
+    public TokenCache(String aFile) {
+        file = aFile;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            lock = channel.tryLock();
+            if (lock == null) {
+                System.out.println(file + " is used by another process, documents will not be cached.");
+                channel.close();
+                channel = null;
+                return;
+            }
+            if (channel.size() == 0) {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+            }
+            scan();
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel.position(length)), 1 << 16));
+            System.out.printf("Token cache %s: %d documents, %d tokens%n", file, offsets.size(), tokens.size());
+        } catch (IOException ex) {
+            Logger.getLogger(TokenCache.class.getName()).log(Level.SEVERE, null, ex);
+            channel = null;
+            try {
+                raf.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private void scan() throws IOException {
+        raf.seek(0);
+        if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+            throw new IOException(file + " is not a token cache");
+        }
+        DataReader in = new DataReader(channel, 8, 1 << 16);
+        long position = 8;
+        try {
+            while (position < channel.size()) {
+                byte type = in.readByte();
+                if (type == TOKEN) {
+                    String token = in.readString();
+                    tokenIds.put(token, tokens.size());
+                    tokens.add(token);
+                } else if (type == DOCUMENT) {
+                    int size = in.readInt();
+                    String id = in.readString();
+                    long hash = in.readLong();
+                    in.skip(size - 4 - id.getBytes(StandardCharsets.UTF_8).length - 8);
+                    // only complete records are looked up
+                    hashes.put(id, hash);
+                    offsets.put(id, position);
+                } else {
+                    throw new EOFException();
+                }
+                position = in.position();
+            }
+        } catch (EOFException ex) {
+            System.out.println(file + ": truncated at byte " + position);
+            channel.truncate(position);
+        }
+        length = flushed = position;
+    }
+
+    /* 64 bit FNV-1a hash of the tokenizer and the text */
+    public static long hash(String tokenizer, String text) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < tokenizer.length(); i++) {
+            h = (h ^ tokenizer.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ 0xffff) * 0x100000001b3L;
+        for (int i = 0; i < text.length(); i++) {
+            h = (h ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /*
+     * the sentences of the document, or null when it is not cached with this
+     * hash; the record is read outside the lock, only the lookups of its
+     * offset and of its tokens are made under it
+     */
+    public List<String> get(String id, long hash) {
+        FileChannel source;
+        long offset;
+        synchronized (this) {
+            if (channel == null || !offsets.containsKey(id) || hashes.get(id) != hash) {
+                misses++;
+                return null;
+            }
+            source = channel;
+            offset = offsets.get(id);
+            try {
+                if (offset >= flushed) {
+                    out.flush();
+                    flushed = length;
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(TokenCache.class.getName()).log(Level.SEVERE, null, ex);
+                misses++;
+                return null;
+            }
+        }
+        int[][] ids;
+        try {
+            DataReader in = new DataReader(source, offset + 1, 1 << 12);
+            in.readInt();
+            in.readString();
+            in.readLong();
+            ids = new int[in.readInt()][];
+            for (int s = 0; s < ids.length; s++) {
+                ids[s] = new int[in.readInt()];
+                for (int t = 0; t < ids[s].length; t++) {
+                    ids[s][t] = in.readInt();
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(TokenCache.class.getName()).log(Level.SEVERE, null, ex);
+            synchronized (this) {
+                misses++;
+            }
+            return null;
+        }
+        List<String> lines = new ArrayList<>(ids.length);
+        StringBuilder sb = new StringBuilder();
+        synchronized (this) {
+            for (int[] sentence : ids) {
+                sb.setLength(0);
+                for (int token : sentence) {
+                    sb.append(tokens.get(token)).append(" ");
+                }
+                lines.add(sb.toString());
+            }
+            hits++;
+        }
+        return lines;
+    }
+
+    /* the sentences are split outside the lock, token ids are given and the record appended under it */
+    public void put(String id, long hash, List<String> sentences) {
+        String[][] split = new String[sentences.size()][];
+        for (int s = 0; s < split.length; s++) {
+            split[s] = sentences.get(s).split(" ");
+        }
+        synchronized (this) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                DataOutputStream record = new DataOutputStream(buffer);
+                writeString(record, id);
+                record.writeLong(hash);
+                record.writeInt(split.length);
+                for (String[] sentence : split) {
+                    record.writeInt(sentence.length);
+                    for (String token : sentence) {
+                        if (!tokenIds.containsKey(token)) {
+                            tokenIds.put(token, tokens.size());
+                            tokens.add(token);
+                            out.writeByte(TOKEN);
+                            length += 1 + writeString(out, token);
+                        }
+                        record.writeInt(tokenIds.get(token));
+                    }
+                }
+                record.flush();
+                offsets.put(id, length);
+                hashes.put(id, hash);
+                out.writeByte(DOCUMENT);
+                out.writeInt(buffer.size());
+                buffer.writeTo(out);
+                length += 1 + 4 + buffer.size();
+            } catch (IOException ex) {
+                Logger.getLogger(TokenCache.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    private static int writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return 4 + bytes.length;
+    }
+
+    public synchronized String statistics() {
+        long lookups = hits + misses;
+        return String.format("Token cache: %d hits, %d misses (%.1f%% hits), %d documents, %d tokens",
+                hits, misses, (lookups == 0) ? 0.0 : 100.0 * hits / lookups, offsets.size(), tokens.size());
+    }
+
+    /* writes the appended documents and releases the file */
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        System.out.println(statistics());
+        try {
+            out.flush();
+            lock.release();
+            raf.close();
+        } catch (IOException ex) {
+            Logger.getLogger(TokenCache.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        channel = null;
+    }
+
+    /* buffered reads from a position of a channel, without moving the channel */
+    private static class DataReader {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long position;
+
+        DataReader(FileChannel channel, long position, int bufferSize) {
+            this.channel = channel;
+            this.position = position;
+            buffer = ByteBuffer.allocate(bufferSize);
+            buffer.limit(0);
+        }
+
+        long position() {
+            return position - buffer.remaining();
+        }
+
+        private void fill(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    throw new EOFException();
+                }
+                position += read;
+            }
+            buffer.flip();
+        }
+
+        byte readByte() throws IOException {
+            fill(1);
+            return buffer.get();
+        }
+
+        int readInt() throws IOException {
+            fill(4);
+            return buffer.getInt();
+        }
+
+        long readLong() throws IOException {
+            fill(8);
+            return buffer.getLong();
+        }
+
+        String readString() throws IOException {
+            int n = readInt();
+            byte[] bytes = new byte[n];
+            int read = 0;
+            while (read < n) {
+                fill(1);
+                int chunk = Math.min(n - read, buffer.remaining());
+                buffer.get(bytes, read, chunk);
+                read += chunk;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        void skip(long bytes) throws IOException {
+            int inBuffer = (int) Math.min(bytes, buffer.remaining());
+            buffer.position(buffer.position() + inBuffer);
+            bytes -= inBuffer;
+            if (bytes > 0) {
+                if (position + bytes > channel.size()) {
+                    throw new EOFException();
+                }
+                position += bytes;
+            }
+        }
+    }
+}
@@ -1,53 +1,32 @@
 package gr.auth.csd.mlkd.preprocessing;
 
-import edu.stanford.nlp.ling.CoreAnnotations;
-import edu.stanford.nlp.ling.CoreLabel;
-import edu.stanford.nlp.pipeline.Annotation;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
-import edu.stanford.nlp.util.CoreMap;
-import edu.stanford.nlp.util.logging.RedwoodConfiguration;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Properties;
 
 /**
- * @author Grigorios Tsoumakas
- * @version 2013.04.16
+ * Splits a text into sentences of tokens. Every sentence is returned as its
+ * lowercased tokens, each followed by a space, with PTB escapes for brackets
+ * and quotes. Implementations need not be thread-safe: Document keeps one
+ * tokenizer per thread.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
  */
-public class Tokenizer {
+public interface Tokenizer {
 
-    private StanfordCoreNLP pipeline;
-    
-    public Tokenizer() {
-        Properties props = new Properties();
-        
-        // stanford full
-        //props.put("annotators", "tokenize, cleanxml, ssplit, pos, lemma");
-        props.put("annotators", "tokenize, ssplit");
-        //RedwoodConfiguration.empty().capture(System.err).apply();
-        pipeline = new StanfordCoreNLP(props);
-    }
+    String CORENLP = "corenlp";
+    String FAST = "fast";
+
+    List<String> tokenize(String input);
 
-    public List<String> tokenize(String input) {
-        Annotation document = new Annotation(input);
-        pipeline.annotate(document);
+    String name();
 
-        //* Stanford full
-        List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
-        List<String> lines = new ArrayList<>();
-        StringBuilder builder;
-        for (CoreMap sentence : sentences) {
-            // traversing the words in the current sentence
-            // a CoreLabel is a CoreMap with additional token-specific methods
-            builder = new StringBuilder();
-            for (CoreLabel token : sentence.get(CoreAnnotations.TokensAnnotation.class)) {
-                String word = token.get(CoreAnnotations.TextAnnotation.class);
-                builder.append(word.toLowerCase()).append(" ");
-                //String lemma = token.get(CoreAnnotations.LemmaAnnotation.class);
-                //String pos = token.get(CoreAnnotations.PartOfSpeechAnnotation.class);
-            }
-            lines.add(builder.toString());
+    static Tokenizer create(String name) {
+        switch (name) {
+            case CORENLP:
+                return new CoreNLPTokenizer();
+            case FAST:
+                return new FastTokenizer();
+            default:
+                throw new IllegalArgumentException("Unknown tokenizer: " + name);
         }
-        return lines;
     }
 }
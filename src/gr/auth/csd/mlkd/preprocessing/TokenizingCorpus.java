@@ -0,0 +1,161 @@
+package gr.auth.csd.mlkd.preprocessing;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Tokenizes the documents of another corpus on a pool of threads, each with
+ * its own CoreNLP pipeline, ahead of the reader. A single thread reads the
+ * wrapped corpus and hands the documents to the pool through a bounded queue
+ * of futures, which nextDocument takes in corpus order, so the documents come
+ * out as from the wrapped corpus, with their sentences already tokenized.
+ * Failures of the reader or of a tokenizing thread are rethrown by
+ * nextDocument, unchecked.
+ *
+ * The pool is shared and kept alive, so that the per-thread pipelines are
+ * built only once.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class TokenizingCorpus extends Corpus {
+
+    static final long serialVersionUID = 2604518936250187312L;
+    /* documents read ahead per tokenizing thread */
+    private static final int AHEAD = 16;
+    private static final Future<Document> END = CompletableFuture.completedFuture(null);
+
+    private static int threads = 1;
+    private static ExecutorService pool;
+
+    private final Corpus corpus;
+    private transient BlockingQueue<Future<Document>> queue;
+    private transient Thread reader;
+
+    public TokenizingCorpus(Corpus corpus) {
+        this.corpus = corpus;
+    }
+
+    /* tokenizing threads of the corpora returned by wrap, 0 for all cores */
+    public static synchronized void setThreads(int t) {
+        threads = (t > 0) ? t : Runtime.getRuntime().availableProcessors();
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public static synchronized int getThreads() {
+        return threads;
+    }
+
+    /**
+     * The corpus tokenized in parallel, or the corpus itself with a single
+     * tokenizing thread or when its documents come already tokenized.
+     */
+    public static Corpus wrap(Corpus corpus) {
+        if (threads <= 1 || corpus instanceof CorpusBinary || corpus instanceof TokenizingCorpus) {
+            return corpus;
+        }
+        return new TokenizingCorpus(corpus);
+    }
+
+    /* the shared pool of tokenizing threads */
+    static synchronized ExecutorService pool() {
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, "tokenizer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return pool;
+    }
+
+    @Override
+    public void reset() {
+        close();
+        final ExecutorService executor = pool();
+        final BlockingQueue<Future<Document>> q = new ArrayBlockingQueue<>(AHEAD * threads);
+        queue = q;
+        reader = new Thread(() -> {
+            Future<Document> last = END;
+            try {
+                corpus.reset();
+                Document doc;
+                while ((doc = corpus.nextDocument()) != null) {
+                    final Document d = doc;
+                    q.put(executor.submit(() -> {
+                        d.tokenize();
+                        return d;
+                    }));
+                }
+                corpus.close();
+            } catch (InterruptedException ex) {
+                // closed before the end of the corpus, nobody waits for the end
+                return;
+            } catch (RuntimeException | Error ex) {
+                // handed to nextDocument, followed by the end
+                CompletableFuture<Document> failed = new CompletableFuture<>();
+                failed.completeExceptionally(ex);
+                last = failed;
+            }
+            try {
+                q.put(last);
+                if (last != END) {
+                    q.put(END);
+                }
+            } catch (InterruptedException ex) {
+                // closed
+            }
+        }, "corpus reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public Document nextDocument() {
+        try {
+            Future<Document> next = queue.take();
+            if (next == END) {
+                queue.put(END);
+                return null;
+            }
+            return next.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (reader != null) {
+            reader.interrupt();
+            try {
+                reader.join();
+            } catch (InterruptedException ex) {
+                Logger.getLogger(TokenizingCorpus.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            reader = null;
+            for (Future<Document> f : queue) {
+                f.cancel(false);
+            }
+            queue = null;
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package gr.auth.csd.mlkd.preprocessing;
 
+import gnu.trove.iterator.TIntIntIterator;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
 import gnu.trove.set.hash.TIntHashSet;
 import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
@@ -15,7 +18,6 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
@@ -39,36 +41,20 @@ public class VectorizeJSON implements Vectorize {
         this.labels = labels;
     }
 
-    protected Map<NGram, Integer> nGramFrequencyFromTokenSentences(List<String> lines, int n) {
-        Map<NGram, Integer> termFrequency = new HashMap<>();
+    /* the frequencies of the features of the dictionary in the sentences, by feature id */
+    protected TIntIntHashMap nGramFrequencyFromTokenSentences(List<String> lines) {
+        TIntIntHashMap termFrequency = new TIntIntHashMap();
+        List<Integer> sizes = dictionary.getNGramSizes();
+        TLongIntHashMap id = dictionary.getId();
         for (String line : lines) {
-            String[] tokens = line.split(" ");
-            for (int i = 0; i < tokens.length + 1 - n; i++) {
-                List<String> aList = new ArrayList<>();
-                for (int j = 0; j < n; j++) {
-                    aList.add(tokens[i + j]);
-                }
-                NGram ngram = new NGram(aList);
-                List<String> list = ngram.getList();
-                if (n > 1) {
-                    boolean skip = false;
-                    for (String token : list) {
-                        if (Dictionary.getTokensToIgnore().contains(token)) {
-                            skip = true;
-                            break;
-                        }
-                    }
-                    if (skip == true) {
-                        continue;
-                    }
-                } else if (Dictionary.getTokensToIgnore().contains(list.get(0))) {
-                    continue;
-                }
-                if (dictionary.getDocumentFrequency().containsKey(ngram)) {
-                    if (termFrequency.containsKey(ngram)) {
-                        termFrequency.put(ngram, termFrequency.get(ngram) + 1);
-                    } else {
-                        termFrequency.put(ngram, 1);
+            int[] tokens = dictionary.tokenIds(line);
+            for (int j = 0; j < sizes.size(); j++) {
+                int n = sizes.get(j);
+                for (int i = 0; i < tokens.length + 1 - n; i++) {
+                    long key = Dictionary.key(tokens, i, n);
+                    int feature = (key == -1) ? -1 : id.get(key);
+                    if (feature != -1) {
+                        termFrequency.adjustOrPutValue(feature, 1, 1);
                     }
                 }
             }
@@ -78,14 +64,10 @@ public class VectorizeJSON implements Vectorize {
 
     protected Map<Integer, Double> vectorize(List<String> lines, boolean lengthNormalization, Document doc) {
         Map<Integer, Double> vector = new TreeMap<>();
-        for (int j = 0; j < dictionary.getNGramSizes().size(); j++) {
-            Map<NGram, Integer> termFrequency = nGramFrequencyFromTokenSentences(lines, dictionary.getNGramSizes().get(j));
-            Iterator<Map.Entry<NGram, Integer>> entries;
-            entries = termFrequency.entrySet().iterator();
-            while (entries.hasNext()) {
-                Map.Entry<NGram, Integer> entry = entries.next();
-                vector.put(dictionary.getId().get(entry.getKey()), fs.fsMethod(entry.getKey(), doc, entry.getValue(), labels));
-            }
+        TIntIntIterator entries = nGramFrequencyFromTokenSentences(lines).iterator();
+        while (entries.hasNext()) {
+            entries.advance();
+            vector.put(entries.key(), fs.fsMethod(dictionary.getKey(entries.key()), doc, entries.value(), labels));
         }
 
         if (lengthNormalization) {
@@ -127,6 +109,7 @@ public class VectorizeJSON implements Vectorize {
             // read each file in given directory and parse the text as follows
             List<String> lines;
             Document doc;
+            aCorpus = TokenizingCorpus.wrap(aCorpus);
             aCorpus.reset();
             while ((doc = aCorpus.nextDocument()) != null) {
                 lines = doc.getContentAsSentencesOfTokens(false);
@@ -161,6 +144,7 @@ public class VectorizeJSON implements Vectorize {
         // read each file in given directory and parse the text as follows
         List<String> lines;
         Document doc;
+        aCorpus = TokenizingCorpus.wrap(aCorpus);
         aCorpus.reset();
         while ((doc = aCorpus.nextDocument()) != null) {
             lines = doc.getContentAsSentencesOfTokens(false);
@@ -186,6 +170,7 @@ public class VectorizeJSON implements Vectorize {
 
     protected void vectorizeLabeled(Corpus corpus, String libsvmFilename, String labelsFile, 
             boolean perLabel, String metaTrainFileName) {
+        corpus = TokenizingCorpus.wrap(corpus);
         corpus.reset();
         try (BufferedWriter output = Files.newBufferedWriter(Paths.get(libsvmFilename), Charset.forName("UTF-8"));
                 ObjectOutputStream outLabels = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(labelsFile)))) {
@@ -265,6 +250,7 @@ public class VectorizeJSON implements Vectorize {
 
     public void vectorizeMetalabels(Corpus corpus, String metaTrainFileName,
             Labels corpusLabels, TIntHashSet modelChoice) {
+        corpus = corpus.projection(Corpus.ID, Corpus.LABELS);
         corpus.reset();
         //System.out.println(new Date() + " Vectorizing for metalabels...");
         TIntArrayList targetValues = new TIntArrayList();
@@ -3,7 +3,6 @@ package gr.auth.csd.mlkd.preprocessing;
 import gr.auth.csd.mlkd.preprocessing.Dictionary;
 import gr.auth.csd.mlkd.preprocessing.Document;
 import gr.auth.csd.mlkd.preprocessing.Labels;
-import gr.auth.csd.mlkd.preprocessing.NGram;
 
 
 
@@ -18,7 +17,7 @@ public class Wf extends FeatureScoring {
     }
     
     @Override
-    public double fsMethod(NGram feature, Document doc, int wf, Labels labels) {
+    public double fsMethod(long feature, Document doc, int wf, Labels labels) {
         return 1;
     }
 
@@ -9,11 +9,11 @@ public class Wf_Idf extends FeatureScoring {
         super(dict, zoning);
     }
     
-    public double fsMethod(NGram feature, Document doc, int wf, Labels labels) {
+    public double fsMethod(long feature, Document doc, int wf, Labels labels) {
         return wf_Idf(doc, feature, wf, labels);
     }
     
-    private double wf_Idf(Document doc, NGram feature, int wf, Labels labels) {
+    private double wf_Idf(Document doc, long feature, int wf, Labels labels) {
         double wf_temp = (zoning)?(zoning(feature, doc, wf,labels)):wf;
         double idf = Math.log((double) corpusSize / (double) dictionary.getDocumentFrequency().get(feature));
         //System.out.println(feature+" "+wf+" "+wf_temp+" "+idf+" "+corpusSize+" "+ dictionary.getDocumentFrequency().get(feature));
@@ -53,6 +53,12 @@ public class CmdOption implements Serializable {
     @Option(name = "-testFile", usage = "testing dataset")
     public String testFile = null;
 
+    @Option(name = "-binaryCorpus", usage = "read the training file through a binary store of its tokens, converted once to trainingFile.bin")
+    public boolean binaryCorpus = false;
+
+    @Option(name = "-jsonlCorpus", usage = "read the training file for labels and dictionary through a JSON Lines copy, converted once to trainingFile.jsonl and read in parallel ranges")
+    public boolean jsonlCorpus = false;
+
     @Option(name = "-validationFile", usage = "validation dataset")
     public String validationFile = null;
 
@@ -65,6 +71,18 @@ public class CmdOption implements Serializable {
     @Option(name = "-threads", usage = "number of threads")
     public int threads = 1;
 
+    @Option(name = "-tokenizerThreads", usage = "threads tokenizing documents for the dictionary and vectorization, 0 uses all cores")
+    public int tokenizerThreads = 0;
+
+    @Option(name = "-tokenizer", usage = "tokenizer of the documents: corenlp or fast (rule-based)")
+    public String tokenizer = "corenlp";
+
+    @Option(name = "-tokenCache", usage = "file caching the tokenized documents across runs")
+    public String tokenCache = null;
+
+    @Option(name = "-maxBigrams", usage = "bigram counts kept in memory while building the dictionary, the rest are spilled to disk")
+    public int maxBigrams = 1 << 21;
+
     @Option(name = "-offset", usage = "adjust the MetaLabeler's predictions by offset")
     public int offset = -1;
 
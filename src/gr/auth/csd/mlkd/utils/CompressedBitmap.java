@@ -0,0 +1,484 @@
+package gr.auth.csd.mlkd.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A compressed set of non-negative ints. Values are split by their high 16
+ * bits into containers holding the low 16 bits: a sorted array for sparse
+ * containers, a 65536-bit bitmap for dense ones and, after runOptimize(),
+ * runs of consecutive values where these are smaller. Intersections are
+ * counted per container, with word-level popcounts between bitmaps.
+ *
+ * @author Yannis Papanikolaou <ypapanik@csd.auth.gr>
+ */
+public class CompressedBitmap implements Serializable {
+
+    static final long serialVersionUID = 4713298016482379125L;
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size = 0;
+
+    public void add(int x) {
+        char key = (char) (x >>> 16);
+        int i = find(key);
+        if (i < 0) {
+            i = -i - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, 2 * size);
+                containers = Arrays.copyOf(containers, 2 * size);
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(containers, i, containers, i + 1, size - i);
+            keys[i] = key;
+            containers[i] = new ArrayContainer();
+            size++;
+        }
+        containers[i] = containers[i].add((char) x);
+    }
+
+    public boolean contains(int x) {
+        int i = find((char) (x >>> 16));
+        return i >= 0 && containers[i].contains((char) x);
+    }
+
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += containers[i].cardinality();
+        }
+        return cardinality;
+    }
+
+    /* the smallest value >= from, or -1 */
+    public int nextValue(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int i = find((char) (from >>> 16));
+        int low = from & 0xFFFF;
+        if (i < 0) {
+            i = -i - 1;
+            low = 0;
+        }
+        for (; i < size; i++, low = 0) {
+            int v = containers[i].nextValue(low);
+            if (v >= 0) {
+                return (keys[i] << 16) | v;
+            }
+        }
+        return -1;
+    }
+
+    public int[] toArray() {
+        int[] values = new int[cardinality()];
+        int pos = 0;
+        for (int i = 0; i < size; i++) {
+            int high = keys[i] << 16;
+            Container c = containers[i];
+            for (int v = c.nextValue(0); v >= 0; v = (v == 0xFFFF) ? -1 : c.nextValue(v + 1)) {
+                values[pos++] = high | v;
+            }
+        }
+        return values;
+    }
+
+    public int andCardinality(CompressedBitmap o) {
+        int cardinality = 0;
+        int i = 0, j = 0;
+        while (i < size && j < o.size) {
+            if (keys[i] < o.keys[j]) {
+                i++;
+            } else if (keys[i] > o.keys[j]) {
+                j++;
+            } else {
+                cardinality += containers[i].andCardinality(o.containers[j]);
+                i++;
+                j++;
+            }
+        }
+        return cardinality;
+    }
+
+    public static double jaccardDistance(CompressedBitmap a, CompressedBitmap b) {
+        int intersection = a.andCardinality(b);
+        int union = a.cardinality() + b.cardinality() - intersection;
+        return (union == 0) ? 0 : 1 - (double) intersection / union;
+    }
+
+    public static int hammingDistance(CompressedBitmap a, CompressedBitmap b) {
+        return a.cardinality() + b.cardinality() - 2 * a.andCardinality(b);
+    }
+
+    /* converts every container to its smallest representation */
+    public void runOptimize() {
+        for (int i = 0; i < size; i++) {
+            containers[i] = containers[i].optimize();
+        }
+        keys = Arrays.copyOf(keys, size);
+        containers = Arrays.copyOf(containers, size);
+    }
+
+    public long sizeInBytes() {
+        long bytes = 16 + 2L * keys.length + 4L * containers.length;
+        for (int i = 0; i < size; i++) {
+            bytes += containers[i].sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private int find(char key) {
+        if (size > 0 && keys[size - 1] == key) {
+            return size - 1;
+        }
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private abstract static class Container implements Serializable {
+
+        static final long serialVersionUID = 7483406193545209119L;
+
+        abstract Container add(char x);
+
+        abstract boolean contains(char x);
+
+        abstract int cardinality();
+
+        /* the smallest value >= from (0..65535), or -1 */
+        abstract int nextValue(int from);
+
+        abstract int andCardinality(Container o);
+
+        abstract long sizeInBytes();
+
+        int numberOfRuns() {
+            int runs = 0;
+            int previous = -2;
+            for (int v = nextValue(0); v >= 0; v = (v == 0xFFFF) ? -1 : nextValue(v + 1)) {
+                if (v != previous + 1) {
+                    runs++;
+                }
+                previous = v;
+            }
+            return runs;
+        }
+
+        Container optimize() {
+            int cardinality = cardinality();
+            int runs = numberOfRuns();
+            long runBytes = 4L * runs;
+            long arrayBytes = (cardinality <= ArrayContainer.MAX) ? 2L * cardinality : Long.MAX_VALUE;
+            long bitmapBytes = 8L * BitmapContainer.WORDS;
+            if (runBytes < arrayBytes && runBytes < bitmapBytes) {
+                return (this instanceof RunContainer) ? this : new RunContainer(this, runs);
+            }
+            if (arrayBytes <= bitmapBytes) {
+                return (this instanceof ArrayContainer) ? this : new ArrayContainer(this);
+            }
+            return (this instanceof BitmapContainer) ? this : new BitmapContainer(this);
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+
+        static final long serialVersionUID = -2976030473715309003L;
+
+        static final int MAX = 4096;
+        char[] values;
+        int cardinality;
+
+        ArrayContainer() {
+            values = new char[4];
+        }
+
+        ArrayContainer(Container c) {
+            values = new char[c.cardinality()];
+            for (int v = c.nextValue(0); v >= 0; v = (v == 0xFFFF) ? -1 : c.nextValue(v + 1)) {
+                values[cardinality++] = (char) v;
+            }
+        }
+
+        @Override
+        Container add(char x) {
+            int i;
+            if (cardinality > 0 && values[cardinality - 1] < x) {
+                i = cardinality;
+            } else {
+                i = Arrays.binarySearch(values, 0, cardinality, x);
+                if (i >= 0) {
+                    return this;
+                }
+                i = -i - 1;
+            }
+            if (cardinality == MAX) {
+                return new BitmapContainer(this).add(x);
+            }
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(MAX, 2 * cardinality));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = x;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return Arrays.binarySearch(values, 0, cardinality, x) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int nextValue(int from) {
+            int i = Arrays.binarySearch(values, 0, cardinality, (char) from);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return (i < cardinality) ? values[i] : -1;
+        }
+
+        @Override
+        int andCardinality(Container o) {
+            int count = 0;
+            if (o instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) o;
+                int i = 0, j = 0;
+                while (i < cardinality && j < a.cardinality) {
+                    if (values[i] < a.values[j]) {
+                        i++;
+                    } else if (values[i] > a.values[j]) {
+                        j++;
+                    } else {
+                        count++;
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (o.contains(values[i])) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + 2L * values.length;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+
+        static final long serialVersionUID = -6199345031713107610L;
+
+        static final int WORDS = 1024;
+        final long[] words = new long[WORDS];
+        int cardinality;
+
+        BitmapContainer(Container c) {
+            for (int v = c.nextValue(0); v >= 0; v = (v == 0xFFFF) ? -1 : c.nextValue(v + 1)) {
+                words[v >>> 6] |= 1L << v;
+            }
+            cardinality = c.cardinality();
+        }
+
+        @Override
+        Container add(char x) {
+            long before = words[x >>> 6];
+            long after = before | (1L << x);
+            if (before != after) {
+                words[x >>> 6] = after;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int nextValue(int from) {
+            int w = from >>> 6;
+            long word = words[w] & (-1L << from);
+            while (word == 0) {
+                if (++w == WORDS) {
+                    return -1;
+                }
+                word = words[w];
+            }
+            return (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+
+        /* the number of values in [start, end] */
+        int countRange(int start, int end) {
+            int first = start >>> 6, last = end >>> 6;
+            long lastMask = -1L >>> (63 - (end & 63));
+            if (first == last) {
+                return Long.bitCount(words[first] & (-1L << start) & lastMask);
+            }
+            int count = Long.bitCount(words[first] & (-1L << start));
+            for (int w = first + 1; w < last; w++) {
+                count += Long.bitCount(words[w]);
+            }
+            return count + Long.bitCount(words[last] & lastMask);
+        }
+
+        @Override
+        int andCardinality(Container o) {
+            if (o instanceof BitmapContainer) {
+                long[] other = ((BitmapContainer) o).words;
+                int count = 0;
+                for (int w = 0; w < WORDS; w++) {
+                    count += Long.bitCount(words[w] & other[w]);
+                }
+                return count;
+            }
+            return o.andCardinality(this);
+        }
+
+        @Override
+        int numberOfRuns() {
+            int runs = 0;
+            long carry = 0;
+            for (int w = 0; w < WORDS; w++) {
+                runs += Long.bitCount(words[w] & ~((words[w] << 1) | carry));
+                carry = words[w] >>> 63;
+            }
+            return runs;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + 8L * WORDS;
+        }
+    }
+
+    private static final class RunContainer extends Container {
+
+        static final long serialVersionUID = 7835279567206548361L;
+
+        /* start and length - 1 of every run */
+        final char[] runs;
+        final int cardinality;
+
+        RunContainer(Container c, int numberOfRuns) {
+            runs = new char[2 * numberOfRuns];
+            int r = -1;
+            int previous = -2;
+            for (int v = c.nextValue(0); v >= 0; v = (v == 0xFFFF) ? -1 : c.nextValue(v + 1)) {
+                if (v != previous + 1) {
+                    r++;
+                    runs[2 * r] = (char) v;
+                } else {
+                    runs[2 * r + 1]++;
+                }
+                previous = v;
+            }
+            cardinality = c.cardinality();
+        }
+
+        int start(int r) {
+            return runs[2 * r];
+        }
+
+        int end(int r) {
+            return runs[2 * r] + runs[2 * r + 1];
+        }
+
+        /* the first run that ends at or after x */
+        int findRun(int x) {
+            int lo = 0, hi = runs.length / 2 - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (end(mid) < x) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return lo;
+        }
+
+        @Override
+        Container add(char x) {
+            if (contains(x)) {
+                return this;
+            }
+            Container c = (cardinality < ArrayContainer.MAX) ? new ArrayContainer(this) : new BitmapContainer(this);
+            return c.add(x);
+        }
+
+        @Override
+        boolean contains(char x) {
+            int r = findRun(x);
+            return r < runs.length / 2 && start(r) <= x;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        int nextValue(int from) {
+            int r = findRun(from);
+            return (r < runs.length / 2) ? Math.max(start(r), from) : -1;
+        }
+
+        @Override
+        int andCardinality(Container o) {
+            int count = 0;
+            int n = runs.length / 2;
+            if (o instanceof RunContainer) {
+                RunContainer other = (RunContainer) o;
+                int m = other.runs.length / 2;
+                int i = 0, j = 0;
+                while (i < n && j < m) {
+                    int start = Math.max(start(i), other.start(j));
+                    int end = Math.min(end(i), other.end(j));
+                    if (start <= end) {
+                        count += end - start + 1;
+                    }
+                    if (end(i) < other.end(j)) {
+                        i++;
+                    } else {
+                        j++;
+                    }
+                }
+                return count;
+            }
+            if (o instanceof BitmapContainer) {
+                BitmapContainer bitmap = (BitmapContainer) o;
+                for (int r = 0; r < n; r++) {
+                    count += bitmap.countRange(start(r), end(r));
+                }
+                return count;
+            }
+            return o.andCardinality(this);
+        }
+
+        @Override
+        int numberOfRuns() {
+            return runs.length / 2;
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + 2L * runs.length;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package gr.auth.csd.mlkd.utils;
 
+import gr.auth.csd.mlkd.preprocessing.Corpus;
 import gr.auth.csd.mlkd.preprocessing.CorpusJSON;
 import gr.auth.csd.mlkd.preprocessing.Document;
 import gr.auth.csd.mlkd.preprocessing.Labels;
@@ -33,6 +34,7 @@ public class MicroAndMacroFLabelPivoted extends Evaluator {
     @Override
     public void evaluate() {
         super.readBipartitions();
+        Corpus corpus = this.corpus.projection(Corpus.ID, Corpus.LABELS);
         corpus.reset();
         //load predicted labels
         double[] tp, fp, tn, fn;